@@ -0,0 +1,187 @@
+package progetto_2020_2021;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * BinaryCodec salva lo stato in un formato binario compatto, senza passare per la rappresentazione testuale.
+ * Ogni file inizia con un intero che identifica formato e versione, seguito dal contenuto:
+ * - utenti: per ogni utente nome e password, fino alla fine del file; i nuovi utenti vengono accodati
+ * - membri: numero di membri seguito dai loro nomi
+ * - workflow: specifica del workflow
+ * - carta: nome, descrizione, numero di sequenza e storia codificata da Card.packHistory
+ * Le stringhe sono codificate come lunghezza in byte (int) seguita dai byte UTF-8, come nei record del journal
+ *
+ * @author Antonio Guzzi
+ */
+public class BinaryCodec implements StorageCodec {
+
+	private static final String EXTENSION = ".bin";
+	private static final int MAGIC = 0x57525431; //"WRT1"
+	private static final int MAX_STRING_DIMENSION = 1024 * 1024;
+	private static final int MAX_HISTORY_DIMENSION = 16 * 1024 * 1024;
+	private static final int BUFFER_DIMENSION = 8192;
+
+	// ---------------------------------- METODI IMPLEMENTATI DALL'INTERFACCIA ---------------------------------- //
+
+	@Override
+	public String getExtension() {
+		return EXTENSION;
+	}
+
+	@Override
+	public byte[] encodeUsers(Collection<User> users) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(users.size() * 32);
+		DataOutputStream out = this.open(bytes);
+		for(User user : users) writeUser(out, user);
+		return bytes.toByteArray();
+	}
+
+	@Override
+	public byte[] encodeUser(User user) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+		writeUser(new DataOutputStream(bytes), user);
+		return bytes.toByteArray();
+	}
+
+	@Override
+	public long decodeUsers(InputStream in, Consumer<User> consumer) throws IOException {
+		try (DataInputStream data = this.open(new BufferedInputStream(in, BUFFER_DIMENSION))) {
+			long valid = Integer.BYTES;
+			while(true) {
+				String nickName;
+				String psw;
+				//una lunghezza non valida non è una scrittura interrotta ma un file corrotto: StreamCorruptedException
+				//viene propagata, troncare il file da quel punto eliminerebbe tutti gli utenti successivi
+				try {
+					nickName = readString(data);
+					psw = readString(data);
+				}catch (EOFException e) {return valid;} //fine del file o ultimo record incompleto
+				//gli utenti letti dal file risultano Offline
+				consumer.accept(new User(nickName, psw, UserState.Offline));
+				valid += 2 * Integer.BYTES + utf8Length(nickName) + utf8Length(psw);
+			}
+		}
+	}
+
+	@Override
+	public byte[] encodeMembers(List<String> members) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = this.open(bytes);
+		out.writeInt(members.size());
+		for(String member : members) writeString(out, member);
+		return bytes.toByteArray();
+	}
+
+	@Override
+	public ArrayList<String> decodeMembers(InputStream in) throws IOException {
+		try (DataInputStream data = this.open(new BufferedInputStream(in, BUFFER_DIMENSION))) {
+			int size = data.readInt();
+			if(size < 0) throw new IOException("numero di membri non valido: " + size);
+			ArrayList<String> members = new ArrayList<String>(Math.min(size, 1024));
+			for(int i = 0; i < size; i++) members.add(readString(data));
+			return members;
+		}
+	}
+
+	@Override
+	public byte[] encodeWorkflow(String spec) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		writeString(this.open(bytes), spec);
+		return bytes.toByteArray();
+	}
+
+	@Override
+	public String decodeWorkflow(byte[] content) throws IOException {
+		return readString(this.open(new ByteArrayInputStream(content)));
+	}
+
+	@Override
+	public byte[] encodeCard(Card card) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = this.open(bytes);
+		writeString(out, card.getCardName());
+		writeString(out, card.getDescription());
+		out.writeLong(card.getSeq());
+		byte[] history = card.packHistory();
+		out.writeInt(history.length);
+		out.write(history);
+		return bytes.toByteArray();
+	}
+
+	@Override
+	public Card decodeCard(byte[] content) throws IOException {
+		DataInputStream in = this.open(new ByteArrayInputStream(content));
+		Card card = new Card(readString(in), readString(in));
+		card.setSeq(in.readLong());
+		int length = in.readInt();
+		if(length < 0 || length > MAX_HISTORY_DIMENSION) throw new IOException("dimensione della storia non valida: " + length);
+		byte[] history = new byte[length];
+		in.readFully(history);
+		try {
+			card.unpackHistory(history);
+		}catch (IllegalArgumentException e) {throw new IOException(e.getMessage());}
+		return card;
+	}
+
+	// ---------------------------------- METODI DI APPOGGIO ---------------------------------- //
+
+	/**
+	 * permette di iniziare un file scrivendo l'intero che identifica il formato
+	 */
+	private DataOutputStream open(ByteArrayOutputStream bytes) throws IOException {
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		return out;
+	}
+
+	/**
+	 * permette di iniziare la lettura di un file verificando l'intero che identifica il formato
+	 *
+	 * @throws IOException se il file non è nel formato binario
+	 */
+	private DataInputStream open(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(in);
+		int magic;
+		try {
+			magic = data.readInt();
+		}catch (EOFException e) {throw new IOException("file vuoto");}
+		if(magic != MAGIC) throw new IOException("il file non è nel formato binario di WORTH");
+		return data;
+	}
+
+	private static void writeUser(DataOutputStream out, User user) throws IOException {
+		writeString(out, user.getNickName());
+		writeString(out, user.getPsw());
+	}
+
+	private static int utf8Length(String value) {
+		return value.getBytes(StandardCharsets.UTF_8).length;
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if(length < 0 || length > MAX_STRING_DIMENSION) throw new StreamCorruptedException("dimensione della stringa non valida: " + length);
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,90 @@
+package progetto_2020_2021;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * BufferPool mantiene un insieme di buffer diretti di dimensione fissa, ricavati da blocchi di memoria (slab) più grandi.
+ * I buffer vengono presi dalle connessioni e restituiti quando non servono più, in modo da non allocarne di nuovi
+ * ad ogni richiesta
+ *
+ * @author Antonio Guzzi
+ */
+public class BufferPool {
+
+	private final int bufferDimension;
+	private final int buffersPerSlab;
+	private final ConcurrentLinkedQueue<ByteBuffer> freeBuffers; //buffer liberi
+	private final AtomicInteger slabs; //numero di slab allocati
+
+	// ---------------------------------- METODO COSTRUTTORE ---------------------------------- //
+
+	/**
+	 * @param bufferDimension: dimensione di ogni buffer
+	 * @param buffersPerSlab: numero di buffer ricavati da ogni slab
+	 * @throws IllegalArgumentException se una delle dimensioni non è positiva
+	 */
+	public BufferPool(int bufferDimension, int buffersPerSlab) throws IllegalArgumentException {
+		if(bufferDimension <= 0) throw new IllegalArgumentException("bufferDimension non positiva");
+		if(buffersPerSlab <= 0) throw new IllegalArgumentException("buffersPerSlab non positivo");
+		this.bufferDimension = bufferDimension;
+		this.buffersPerSlab = buffersPerSlab;
+		this.freeBuffers = new ConcurrentLinkedQueue<ByteBuffer>();
+		this.slabs = new AtomicInteger(0);
+		this.allocateSlab();
+	}
+
+	// ---------------------------------- METODI GET ---------------------------------- //
+
+	/**
+	 * @return dimensione di ogni buffer del pool
+	 */
+	public int getBufferDimension() {
+		return this.bufferDimension;
+	}
+
+	/**
+	 * @return numero di slab allocati dal pool
+	 */
+	public int getSlabs() {
+		return this.slabs.get();
+	}
+
+	// ---------------------------------- METODI DI APPOGGIO ---------------------------------- //
+
+	/**
+	 * permette di prendere un buffer libero dal pool, se non ce ne sono viene allocato un nuovo slab
+	 *
+	 * @return buffer pronto per la scrittura
+	 */
+	public ByteBuffer acquire() {
+		ByteBuffer buffer;
+		while((buffer = this.freeBuffers.poll()) == null) this.allocateSlab();
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * permette di restituire un buffer al pool, i buffer che non appartengono al pool vengono ignorati
+	 *
+	 * @param buffer: buffer da restituire
+	 */
+	public void release(ByteBuffer buffer) {
+		if(buffer == null || !buffer.isDirect() || buffer.capacity() != this.bufferDimension) return;
+		this.freeBuffers.add(buffer);
+	}
+
+	/**
+	 * permette di allocare un nuovo slab e di dividerlo in buffer
+	 */
+	private void allocateSlab() {
+		ByteBuffer slab = ByteBuffer.allocateDirect(this.bufferDimension * this.buffersPerSlab);
+		for(int i = 0; i < this.buffersPerSlab; i++) {
+			slab.limit((i + 1) * this.bufferDimension);
+			slab.position(i * this.bufferDimension);
+			this.freeBuffers.add(slab.slice());
+		}
+		System.out.println("Server WORTH: allocato lo slab " + this.slabs.incrementAndGet() + " del pool di buffer");
+	}
+}
@@ -1,101 +1,254 @@
 package progetto_2020_2021;
 
+import java.io.ByteArrayOutputStream;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
 
 /**
- * la classe Card modella una carta all'interno del progetto
- * 
+ * la classe Card modella una carta all'interno del progetto. La storia della carta è mantenuta come array di long,
+ * uno per ogni lista visitata, contenente l'indice della lista nel workflow del progetto e l'istante di ingresso.
+ * Su disco la storia viene salvata in forma compatta: per ogni passaggio l'indice della lista e la distanza in
+ * millisecondi dal passaggio precedente, codificati come varint e poi in Base64
+ *
  * @author Antonio Guzzi
  */
 public class Card {
+
+	private static final int COLUMN_SHIFT = 48;
+	private static final long TIME_MASK = (1L << COLUMN_SHIFT) - 1;
+	private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm:ss").withZone(ZoneId.systemDefault());
+
 	private String cardName;
 	private String description;
-	public ArrayList<String> history;
-	
-	
+	private long[] history; //passaggi della carta: indice della lista nei 16 bit alti, istante in millisecondi nei restanti
+	private int historySize;
+	private ArrayList<String> legacyStory; //storia letta da un file nel vecchio formato, convertita quando la carta entra nel progetto
+	private long seq; //numero di sequenza dell'ultimo record del journal applicato alla carta, 0 se non noto
+
+
 	// ---------------------------------- METODI COSTRUTTORE ---------------------------------- //
-	
+
 	/**
 	 * @param name: nome della carta
 	 * @param description: descrizione della carta
 	 * @throws IllegalArgumentException se uno dei due paramentri risulta essere uguale a null
 	 */
 	public Card(String name, String description) throws IllegalArgumentException {
-		
+
 		if(name == null) throw new IllegalArgumentException("nome null");
 		if( description == null) throw new IllegalArgumentException("descrizione null");
-		
+
 		this.cardName = name;
 		this.description = description;
-		this.history = new ArrayList<String>();
+		this.history = new long[4];
+		this.historySize = 0;
 	}
-	
+
 	public Card() {
-		
+		this.history = new long[4];
+		this.historySize = 0;
 	}
-	
+
 	// ---------------------------------- METODI GET ---------------------------------- //
-	
+
 	/**
-	 * @return nome della carta 
+	 * @return nome della carta
 	 */
 	public String getCardName() {
 		return this.cardName;
 	}
-	
+
 	/**
 	 * @return descrizione della carta
 	 */
 	public String getDescription() {
 		return this.description;
 	}
-	
+
 	/**
-	 * @return nomi delle liste visitate dalla carta
+	 * @return numero di sequenza dell'ultimo record del journal applicato alla carta
 	 */
-	public ArrayList<String> getStory() {
-		return this.history;
+	public synchronized long getSeq() {
+		return this.seq;
 	}
 	
 	/**
-	 * @return la storia della carta sotto forma di stringa
+	 * @return la storia della carta nella forma compatta salvata su disco
 	 */
-	@JsonIgnore
-	public String getHistory() {
+	@JsonProperty("history")
+	public String getPackedHistory() {
+		return Base64.getEncoder().encodeToString(this.packHistory());
+	}
+
+	/**
+	 * permette di codificare la storia come sequenza di varint: per ogni passaggio l'indice della lista e la distanza
+	 * in millisecondi dal passaggio precedente
+	 *
+	 * @return la storia codificata
+	 */
+	public synchronized byte[] packHistory() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(this.historySize * 8);
+		long previous = 0;
+		for(int i = 0; i < this.historySize; i++) {
+			long time = this.history[i] & TIME_MASK;
+			writeVarint(out, this.history[i] >>> COLUMN_SHIFT);
+			//zigzag: la distanza è negativa solo se l'orologio del server è tornato indietro
+			long delta = time - previous;
+			writeVarint(out, (delta << 1) ^ (delta >> 63));
+			previous = time;
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * permette di visualizzare la storia della carta, la stringa viene costruita solo quando richiesta
+	 *
+	 * @param workflow: workflow del progetto, per ricavare i nomi delle liste
+	 * @return la storia della carta sotto forma di stringa, con l'istante di ingresso in ogni lista se noto
+	 */
+	public synchronized String getHistory(Workflow workflow) {
 		StringBuilder str = new StringBuilder();
-		for(String list : this.history) str.append(list + " ");
+		for(int i = 0; i < this.historySize; i++) {
+			long time = this.history[i] & TIME_MASK;
+			str.append(workflow.getName((int) (this.history[i] >>> COLUMN_SHIFT)));
+			//i passaggi recuperati dal vecchio formato non hanno un istante
+			if(time != 0) str.append(" (" + TIME_FORMAT.format(Instant.ofEpochMilli(time)) + ")");
+			str.append(" ");
+		}
 		return str.toString().trim();
 	}
-	
+
 	/**
-	 * @return nome della lista corrente nel quale si trova la carta
+	 * @return indice nel workflow della lista corrente nel quale si trova la carta, -1 se la carta non ha storia
 	 */
 	@JsonIgnore
-	public String getCurrentState() {
-		return this.history.get(this.history.size()-1);
+	public synchronized int getCurrentColumn() {
+		if(this.historySize == 0) return -1;
+		return (int) (this.history[this.historySize - 1] >>> COLUMN_SHIFT);
 	}
-	
+
 	// ---------------------------------- METODI SET ---------------------------------- //
 	
 	/**
-	 * permette di assegnare una storia a questa carta
-	 * 
-	 * @param history: array di stringhe contenente la storia che si desidera attribuire alla carta
+	 * @param seq: numero di sequenza dell'ultimo record del journal applicato alla carta
 	 */
-	public void setStory(ArrayList<String> history) {
-		this.history = history;
+	public synchronized void setSeq(long seq) {
+		this.seq = seq;
 	}
-	
+
+	/**
+	 * permette di assegnare alla carta la storia salvata su disco in forma compatta
+	 *
+	 * @param packed: storia prodotta da getPackedHistory
+	 * @throws IllegalArgumentException se la storia non è codificata correttamente
+	 */
+	@JsonProperty("history")
+	public void setPackedHistory(String packed) throws IllegalArgumentException {
+		this.unpackHistory(Base64.getDecoder().decode(packed));
+	}
+
+	/**
+	 * permette di assegnare alla carta la storia codificata da packHistory
+	 *
+	 * @param bytes: storia codificata
+	 * @throws IllegalArgumentException se la storia non è codificata correttamente
+	 */
+	public synchronized void unpackHistory(byte[] bytes) throws IllegalArgumentException {
+		int[] position = {0};
+		long previous = 0;
+		this.historySize = 0;
+		while(position[0] < bytes.length) {
+			long column = readVarint(bytes, position);
+			long zigzag = readVarint(bytes, position);
+			previous += (zigzag >>> 1) ^ -(zigzag & 1);
+			this.append(column, previous);
+		}
+	}
+
+	/**
+	 * permette di assegnare alla carta una storia nel vecchio formato (nomi delle liste), viene convertita
+	 * da resolveStory quando la carta viene inserita nel progetto
+	 *
+	 * @param story: nomi delle liste visitate dalla carta
+	 */
+	@JsonProperty("story")
+	public synchronized void setStory(ArrayList<String> story) {
+		this.legacyStory = story;
+	}
+
 	// ---------------------------------- METODI DI APPOGGIO ---------------------------------- //
-	
+
 	/**
 	 * permette di aggiungere alla storia della carta una lista visitata
-	 * 
-	 * @param listName: nome della lista che si desidera aggiungere alla storia della carta
+	 *
+	 * @param column: indice della lista nel workflow del progetto
+	 * @param time: istante di ingresso nella lista in millisecondi
 	 */
-	public void addToHistory(String listName) {
-		this.history.add(listName);
+	public synchronized void addToHistory(int column, long time) {
+		this.append(column, time);
 		return;
 	}
+
+	/**
+	 * permette di convertire la storia letta nel vecchio formato, i passaggi convertiti non hanno un istante
+	 *
+	 * @param workflow: workflow del progetto a cui appartiene la carta
+	 * @return true se la carta ha una storia valida per il workflow, false altrimenti
+	 */
+	public synchronized boolean resolveStory(Workflow workflow) {
+		if(this.legacyStory != null) {
+			this.historySize = 0;
+			for(String listName : this.legacyStory) {
+				int column = workflow.indexOf(listName);
+				if(column < 0) return false;
+				this.append(column, 0);
+			}
+			this.legacyStory = null;
+		}
+		if(this.historySize == 0) return false;
+		for(int i = 0; i < this.historySize; i++) {
+			if((this.history[i] >>> COLUMN_SHIFT) >= workflow.size()) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * permette di aggiungere un passaggio in fondo alla storia
+	 *
+	 * @param column: indice della lista
+	 * @param time: istante in millisecondi, 0 se sconosciuto
+	 */
+	private void append(long column, long time) {
+		if(this.historySize == this.history.length) this.history = Arrays.copyOf(this.history, this.historySize * 2);
+		this.history[this.historySize++] = (column << COLUMN_SHIFT) | (time & TIME_MASK);
+	}
+
+	/**
+	 * permette di scrivere un valore non negativo come varint, 7 bit per byte
+	 */
+	private static void writeVarint(ByteArrayOutputStream out, long value) {
+		while((value & ~0x7FL) != 0) {
+			out.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	/**
+	 * permette di leggere un varint a partire da position[0], che viene fatto avanzare
+	 */
+	private static long readVarint(byte[] bytes, int[] position) throws IllegalArgumentException {
+		long value = 0;
+		for(int shift = 0; shift < 64; shift += 7) {
+			if(position[0] >= bytes.length) throw new IllegalArgumentException("storia della carta troncata");
+			byte b = bytes[position[0]++];
+			value |= (long) (b & 0x7F) << shift;
+			if((b & 0x80) == 0) return value;
+		}
+		throw new IllegalArgumentException("storia della carta non valida");
+	}
 }
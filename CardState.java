@@ -0,0 +1,14 @@
+package progetto_2020_2021;
+
+/**
+ * CardState modella le liste di un progetto in cui può trovarsi una carta, il nome di ogni stato è quello
+ * utilizzato dai client e corrisponde ad una colonna di Workflow.DEFAULT
+ * 
+ * @author Antonio Guzzi
+ */
+public enum CardState {
+	TODO,
+	INPROGRESS,
+	TOBEREVISED,
+	DONE;
+}
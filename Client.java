@@ -16,6 +16,7 @@ import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Client è la classe che modella un client richiedente i servizi del server WORTH
@@ -24,12 +25,13 @@ import java.util.Scanner;
  */
 public class Client {
 	
-	private final static int BUFFER_DIMENSION = 1024;
 	private final int RMIport;
 	private final int TCPport;
 	private Scanner scanner;
-	private HashMap<String, String> map; //coppie user - state
+	private ConcurrentHashMap<String, String> map; //coppie user - state, aggiornata anche dalle notifiche del server
+	private long presenceVersion; //versione dello stato degli utenti ricevuto al login
 	private HashMap<String, Chat> chats; //coppie progetto - chat
+	private FrameReader reader; //permette di ricomporre le risposte del server
 	
 	
 	// ---------------------------------- METODO COSTRUTTORE ---------------------------------- //
@@ -43,8 +45,9 @@ public class Client {
 		this.RMIport = port1;
         this.TCPport = port2;
         this.scanner = new Scanner(System.in);
-        this.map = new HashMap<String, String>();
+        this.map = new ConcurrentHashMap<String, String>();
         this.chats = new HashMap<String, Chat>();
+        this.reader = new FrameReader();
 	}
 	
 	// ---------------------------------- METODO DI AVVIO DEL CLIENT  ---------------------------------- //
@@ -76,7 +79,7 @@ public class Client {
 			while(!logged) {
 				System.out.print("> ");
 				String input = this.scanner.nextLine();
-				String[] parameters = input.split(" ");
+				String[] parameters = this.parseInput(input);
 				
 				//controllo il primo parametro passato in input
 				switch(parameters[0]) {
@@ -102,16 +105,18 @@ public class Client {
 							//apro la connessione verso il server WORTH
 							if (!connected) {
 								client = SocketChannel.open(new InetSocketAddress(InetAddress.getLocalHost(), this.TCPport));
+								//il primo byte inviato sulla connessione indica al server che il client utilizza il protocollo binario
+								client.write(ByteBuffer.wrap(new byte[] {Protocol.HANDSHAKE_BINARY}));
 								connected = true;
 							}
 							
 							//il client effettua il login
-							logged = this.login(parameters[0],parameters[1],parameters[2],client);
+							logged = this.login(parameters[1],parameters[2],client);
 							
 							//se il login è andato a buon fine
 							if(logged) {
 								//il client attiva il sistema di notifiche
-								callbackObj = new NotifyEvent(this.map);
+								callbackObj = new NotifyEvent(this.map, this.presenceVersion, remoteEventManager);
 								stub = (NotifyEventInterface) UnicastRemoteObject.exportObject(callbackObj, 0);
 								this.turnUpNotifications(remoteEventManager,stub);
 							}
@@ -138,7 +143,7 @@ public class Client {
 			while(logged) {
 				System.out.print("> ");
 				String input = this.scanner.nextLine();
-				String[] parameters = input.split(" ");
+				String[] parameters = this.parseInput(input);
 				
 				switch(parameters[0]) {
 				case "help":
@@ -150,7 +155,7 @@ public class Client {
 					try {
 						
 						//eseguo il logout
-						this.logout(parameters[0], client, callbackObj);
+						this.logout(client, callbackObj);
 						
 						//modifico i flag che segnalano il cambio di stato del client
 						logged = false;
@@ -165,7 +170,7 @@ public class Client {
 					try {
 						
 						//eseguo il logout
-						this.logout("logout", client, callbackObj);
+						this.logout(client, callbackObj);
 						
 						//elimino il client dal registro per le notifiche
 						this.turnOffNotification(remoteEventManager, stub);
@@ -185,24 +190,24 @@ public class Client {
 				
 				case "list_projects":
 					try {
-						this.listProjects(parameters[0], client);
+						this.listProjects(client);
 					} catch (IOException e) {e.printStackTrace();}
 					break;
 				
 				case "create_project":
 					//controllo che il numero di argomenti sia corretto
-					if(parameters.length == 2) {
+					if(parameters.length == 2 || parameters.length == 3) {
 						try {
-							this.createProject(parameters[0], parameters[1], client);
+							this.createProject(parameters[1], parameters.length == 3 ? parameters[2] : null, client);
 						} catch (IOException e) {e.printStackTrace();}
-					}else System.out.println("create_project [nome del progetto]");
+					}else System.out.println("create_project [nome del progetto] [workflow (opzionale)]");
 					break;
 					
 				case "add_member":
 					//controllo che il numero di argomenti sia corretto
 					if(parameters.length == 3) {
 						try {
-							this.addMember(parameters[0], parameters[1], parameters[2], client);
+							this.addMember(parameters[1], parameters[2], client);
 						} catch (IOException e) {e.printStackTrace();}
 					}else System.out.println("add_member [nome del progetto] [nome dell'utente]");
 					break;
@@ -211,7 +216,7 @@ public class Client {
 					//controllo che il numero di argometi si acorretto
 					if(parameters.length == 2) {
 						try {
-							this.showMembers(parameters[0], parameters[1], client);
+							this.showMembers(parameters[1], client);
 						} catch (IOException e) {e.printStackTrace();}
 					}else System.out.println("show_members [nome del progetto]");
 					break;
@@ -220,7 +225,7 @@ public class Client {
 					//controllo che il numero di argometi si acorretto
 					if(parameters.length == 2) {
 						try {
-							this.showCards(parameters[0], parameters[1], client);
+							this.showCards(parameters[1], client);
 						} catch (IOException e) {e.printStackTrace();}
 					}else System.out.println("show_cards [nome del progetto]");
 					break;
@@ -229,7 +234,7 @@ public class Client {
 					//controllo che il numero di argometi si acorretto
 					if(parameters.length == 3) {
 						try {
-							this.showCard(parameters[0], parameters[1], parameters[2], client);
+							this.showCard(parameters[1], parameters[2], client);
 						} catch (IOException e) {e.printStackTrace();}
 					}else System.out.println("show_card [nome del progetto] [nome della carta]");
 					break;
@@ -247,7 +252,7 @@ public class Client {
 					//controllo che il numero di argometi si acorretto
 					if(parameters.length == 5) {
 						try {
-							this.moveCard(parameters[0], parameters[1], parameters[2], parameters[3], parameters[4], client);
+							this.moveCard(parameters[1], parameters[2], parameters[3], parameters[4], client);
 						} catch (IOException e) {e.printStackTrace();}
 					}else System.out.println("move_card [nome del progetto] [nome della carta] [lista di partenza] [lista di destinazione]");
 					break;
@@ -256,7 +261,7 @@ public class Client {
 					//controllo che il numero di argometi si acorretto
 					if(parameters.length == 3) {
 						try {
-							this.getCardHistory(parameters[0], parameters[1], parameters[2],client);
+							this.getCardHistory(parameters[1], parameters[2],client);
 						} catch (IOException e) {e.printStackTrace();}
 					}else System.out.println("get_card_history [nome del progetto] [nome della carta]");
 					break;
@@ -265,7 +270,7 @@ public class Client {
 					//controllo che il numero di argometi si acorretto
 					if(parameters.length == 2) {
 						try {
-							this.joinChat(parameters[0], parameters[1], client);
+							this.joinChat(parameters[1], client);
 						} catch (IOException e) {e.printStackTrace();}
 					}else System.out.println("join_chat [nome del progetto]");
 					break;
@@ -286,10 +291,28 @@ public class Client {
 					//controllo che il numero di argometi si acorretto
 					if(parameters.length == 2) {
 						try {
-							this.cancelProject(parameters[0], parameters[1], client);
+							this.cancelProject(parameters[1], client);
 						} catch (IOException e) {e.printStackTrace();}
 					}else  System.out.println("cancel_project [nome del progetto]");
 					break;
+				
+				case "batch":
+					//controllo che il numero di argometi si acorretto
+					if(parameters.length == 3) {
+						try {
+							this.batch(parameters[1], parameters[2], client);
+						} catch (IOException e) {e.printStackTrace();}
+					}else System.out.println("batch [nome del progetto] [file di operazioni]");
+					break;
+				
+				case "exec":
+					//controllo che il numero di argometi si acorretto
+					if(parameters.length == 2) {
+						try {
+							this.exec(parameters[1], client);
+						} catch (IOException e) {e.printStackTrace();}
+					}else System.out.println("exec [file di comandi]");
+					break;
 					
 				default:
 					System.out.println("comando non disponibile");
@@ -331,55 +354,153 @@ public class Client {
 	}
 	
 	/**
-	 * permette l'invio di un messaggio al server woth
+	 * permette di dividere la riga letta da input in parametri, i parametri racchiusi tra virgolette possono contenere spazi
 	 * 
-	 * @param msg: messaggio generato dal client che verrà recapitato dal server
+	 * @param input: riga letta da input
+	 * @return parametri del comando
+	 */
+	private String[] parseInput(String input) {
+		ArrayList<String> parameters = new ArrayList<String>();
+		StringBuilder current = new StringBuilder();
+		boolean quoted = false;
+		for(char c : input.trim().toCharArray()) {
+			if(c == '"') quoted = !quoted;
+			else if(c == ' ' && !quoted) {
+				if(current.length() > 0) parameters.add(current.toString());
+				current.setLength(0);
+			}
+			else current.append(c);
+		}
+		if(current.length() > 0 || parameters.isEmpty()) parameters.add(current.toString());
+		return parameters.toArray(new String[0]);
+	}
+	
+	/**
+	 * permette l'invio di una richiesta al server worth utilizzando il protocollo binario
+	 * 
+	 * @param opcode: opcode dell'operazione richiesta
 	 * @param client: socketChannel del client
+	 * @param fields: campi della richiesta
 	 * @return risposta del server
 	 * @throws IOException
 	 */
-	private String sendMessage(String msg,  SocketChannel client) throws IOException {
-		// la prima parte del messaggio consiste nella sua lunghezza
-		ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
-		length.putInt(msg.length());
-		length.flip();
-		client.write(length);
-		length.clear();
-		        
-		//la seconda parte del messaggio sono i parametri su cui viene fatto il login
-		ByteBuffer readBuffer = ByteBuffer.wrap(msg.trim().getBytes("UTF-8"));
-		client.write(readBuffer);
-		readBuffer.clear();
+	private String sendMessage(byte opcode, SocketChannel client, String... fields) throws IOException {
+		//la richiesta è preceduta dalla sua lunghezza ed è composta da opcode e campi
+		ByteBuffer request = Protocol.encodeRequest(opcode, fields);
+		while(request.hasRemaining()) client.write(request);
 		        
-		//ricezione della risposta da parte del server
-		ByteBuffer reply = ByteBuffer.allocate(BUFFER_DIMENSION);
-		client.read(reply);
-		reply.flip();
-		String serverAnsw = new String(reply.array(), "UTF-8");
-		return serverAnsw;
+		//ricezione della risposta da parte del server, preceduta dalla sua lunghezza
+		return this.reader.readFrame(client);
+	}
+	
+	/**
+	 * permette di inviare più richieste al server senza attendere la risposta di ognuna: vengono inviate fino a
+	 * Protocol.PIPELINE_DEPTH richieste alla volta e le risposte arrivano nello stesso ordine delle richieste
+	 * 
+	 * @param client: socketChannel del client
+	 * @param requests: richieste codificate con Protocol.encodeRequest
+	 * @return risposte del server, nello stesso ordine delle richieste
+	 * @throws IOException
+	 */
+	public ArrayList<String> sendPipelined(SocketChannel client, ArrayList<ByteBuffer> requests) throws IOException {
+		ByteBuffer[] buffers = requests.toArray(new ByteBuffer[0]);
+		ArrayList<String> answers = new ArrayList<String>(buffers.length);
+		int sent = 0;
+		
+		while(answers.size() < buffers.length) {
+			//invio con un'unica scrittura tutte le richieste che non superano il limite di richieste in sospeso
+			int window = Math.min(buffers.length, answers.size() + Protocol.PIPELINE_DEPTH) - sent;
+			if(window > 0) {
+				while(buffers[sent + window - 1].hasRemaining()) client.write(buffers, sent, window);
+				sent += window;
+			}
+			answers.add(this.reader.readFrame(client));
+		}
+		return answers;
+	}
+	
+	/**
+	 * permette di codificare un comando da inviare in sequenza con altri, i comandi che modificano lo stato del client
+	 * (login, logout, join_chat) o che non esistono non possono essere inviati in questo modo
+	 * 
+	 * @param parameters: comando e relativi argomenti
+	 * @return richiesta codificata, null se il comando non può essere inviato in sequenza
+	 */
+	private ByteBuffer encodeCommand(String[] parameters) {
+		Byte opcode = Protocol.getOpcode(parameters[0]);
+		if(opcode == null || opcode == Protocol.LOGIN || opcode == Protocol.LOGOUT || opcode == Protocol.JOIN_CHAT) return null;
+		
+		String[] fields;
+		if(opcode == Protocol.ADD_CARD && parameters.length > 4) {
+			//la descrizione è composta da tutti i parametri successivi al nome della carta
+			StringBuilder description = new StringBuilder();
+			for(int i = 3; i < parameters.length; i++) description.append(parameters[i] + " ");
+			fields = new String[] {parameters[1], parameters[2], description.toString().trim()};
+		}
+		else {
+			fields = new String[parameters.length - 1];
+			System.arraycopy(parameters, 1, fields, 0, fields.length);
+			if(opcode == Protocol.MOVE_CARD && fields.length == 4) {
+				fields[2] = fields[2].toUpperCase();
+				fields[3] = fields[3].toUpperCase();
+			}
+		}
+		return Protocol.encodeRequest(opcode, fields);
+	}
+	
+	/**
+	 * permette di eseguire i comandi contenuti in un file, uno per riga, inviandoli al server senza attendere
+	 * la risposta di ognuno
+	 * 
+	 * @param path: percorso del file di comandi
+	 * @param client: socketChannel del client
+	 * @throws IOException
+	 */
+	private void exec(String path, SocketChannel client) throws IOException {
+		ArrayList<String> commands = new ArrayList<String>();
+		ArrayList<ByteBuffer> requests = new ArrayList<ByteBuffer>();
+		
+		try(BufferedReader in = new BufferedReader(new FileReader(path))) {
+			String line;
+			while((line = in.readLine()) != null) {
+				if(line.trim().isEmpty()) continue;
+				ByteBuffer request = this.encodeCommand(this.parseInput(line));
+				if(request == null) {
+					System.out.println("< Errore. comando non eseguibile da file: " + line);
+					continue;
+				}
+				commands.add(line.trim());
+				requests.add(request);
+			}
+		}
+		
+		ArrayList<String> answers = this.sendPipelined(client, requests);
+		for(int i = 0; i < answers.size(); i++) {
+			System.out.println("> " + commands.get(i));
+			System.out.println(answers.get(i));
+		}
 	}
 	
 	/**
 	 * 
-	 * @param op: identificatore dell'operazione
 	 * @param nickName: nome utente
 	 * @param psw: password associata all'utente
 	 * @param client: socketchannel del client
 	 * @return true se il login va a buon fine, false altrimenti
 	 * @throws IOException
 	 */
-	private boolean login(String op, String nickName, String psw,  SocketChannel client) throws IOException {
-		String msg = op + " " + nickName + " " + psw;
-		String serverAnsw = this.sendMessage(msg, client);
+	private boolean login(String nickName, String psw,  SocketChannel client) throws IOException {
+		String serverAnsw = this.sendMessage(Protocol.LOGIN, client, nickName, psw);
 		
-       //il login è stato effettuato, il server risponde con la lista di utenti registrati e il client crea la propria struttura dati
+       //il login è stato effettuato, il server risponde con la versione e la lista di utenti registrati e il client crea la propria struttura dati
        if(!serverAnsw.contains("Errore")) {
         	String[] serverMsg = serverAnsw.split("\n");
-        	String registered = serverMsg[1].trim();
+        	this.presenceVersion = Long.parseLong(serverMsg[1].trim());
+        	String registered = serverMsg.length > 2 ? serverMsg[2].trim() : "";
        	 	String[] users = registered.split(" ");
        	 	for(String user: users) {
        	 		String[] data = user.split(";");
-       	 		if(!this.map.containsKey(data[0]))this.map.put(data[0], data[1]);
+       	 		if(data.length == 2) this.map.put(data[0], data[1]);
        	 	}
        	 	System.out.println(serverMsg[0]);
        	 	return true;
@@ -392,13 +513,12 @@ public class Client {
 	/**
 	 * permette di effettuare il logout dell'utente attualmente loggato
 	 * 
-	 * @param op: identificatore dell'operazione
 	 * @param client: socketChannel del client
 	 * @param callbackObj: oggetto per l'esecuzione dei metodi di notifica
 	 * @throws IOException
 	 */
-	private void logout(String op, SocketChannel client, NotifyEventInterface callbackObj) throws IOException {
-		String serverAnsw = this.sendMessage(op, client);
+	private void logout(SocketChannel client, NotifyEventInterface callbackObj) throws IOException {
+		String serverAnsw = this.sendMessage(Protocol.LOGOUT, client);
 		UnicastRemoteObject.unexportObject(callbackObj, true);
 		System.out.println(serverAnsw);
 		client.close();
@@ -428,12 +548,11 @@ public class Client {
 	/**
 	 * permette di visualizzare i progetti di cui il chiamante è membro
 	 * 
-	 * @param op: identificatore dell'operazione
 	 * @param client: socketChannel del client
 	 * @throws IOException
 	 */
-	private void listProjects(String op, SocketChannel client) throws IOException {
-		String serverAnsw = this.sendMessage(op, client);
+	private void listProjects(SocketChannel client) throws IOException {
+		String serverAnsw = this.sendMessage(Protocol.LIST_PROJECTS, client);
 		System.out.println("lista dei progetti di cui sei membro:");
 		System.out.println(serverAnsw);
 		return;
@@ -442,14 +561,13 @@ public class Client {
 	/**
 	 * permette di richiedere la creazione di un nuovo progetto
 	 * 
-	 * @param op: identificatore dell'operazione
 	 * @param projectName: nome del progetto
+	 * @param workflow: specifica del workflow del progetto, null per il workflow di default
 	 * @param client: socketChannel del client
 	 * @throws IOException
 	 */
-	private void createProject(String op, String projectName, SocketChannel client) throws IOException {
-		String msg = op + " " + projectName;
-		String serverAnsw = this.sendMessage(msg, client);
+	private void createProject(String projectName, String workflow, SocketChannel client) throws IOException {
+		String serverAnsw = workflow == null ? this.sendMessage(Protocol.CREATE_PROJECT, client, projectName) : this.sendMessage(Protocol.CREATE_PROJECT, client, projectName, workflow);
 		System.out.println(serverAnsw);
 		return;
 	}
@@ -457,15 +575,13 @@ public class Client {
 	/**
 	 * permette di richiedere l'aggiunta di un membro ad un progettp
 	 * 
-	 * @param op: identificare dell'operazione
 	 * @param projectName: nome del progetto
 	 * @param userNick: nome dell'utente da aggiungere al progetto
 	 * @param client: SocketChannel del client
 	 * @throws IOException
 	 */
-	private void addMember(String op, String projectName, String userNick, SocketChannel client) throws IOException {
-		String msg = op + " " + projectName + " " + userNick;
-		String serverAnsw = this.sendMessage(msg, client);
+	private void addMember(String projectName, String userNick, SocketChannel client) throws IOException {
+		String serverAnsw = this.sendMessage(Protocol.ADD_MEMBER, client, projectName, userNick);
 		System.out.println(serverAnsw);
 		return;
 	}
@@ -473,14 +589,12 @@ public class Client {
 	/**
 	 * permette di richiedere la visualizzazione dei membri di un determinato progetto
 	 * 
-	 * @param op: identificatore dell'operazione
 	 * @param projectName: nome del progetto di cui si vogliono vedere i membri
 	 * @param client: SocketChannel del client
 	 * @throws IOException
 	 */
-	private void showMembers(String op, String projectName, SocketChannel client) throws IOException {
-		String msg = op + " " + projectName;
-		String serverAnsw = this.sendMessage(msg, client);
+	private void showMembers(String projectName, SocketChannel client) throws IOException {
+		String serverAnsw = this.sendMessage(Protocol.SHOW_MEMBERS, client, projectName);
 		System.out.println(serverAnsw);
 		return;
 	}
@@ -488,14 +602,12 @@ public class Client {
 	/**
 	 * permette di richiedere la visualizzazione delle carte di un determinato progetto
 	 * 
-	 * @param op: identificatore dell'operazione
 	 * @param projectName: nome del progetto di cui si vogliono visualizzare le carte
 	 * @param client: SocketChannel del client
 	 * @throws IOException
 	 */
-	private void showCards(String op, String projectName, SocketChannel client) throws IOException {
-		String msg = op + " " + projectName;
-		String serverAnsw = this.sendMessage(msg, client);
+	private void showCards(String projectName, SocketChannel client) throws IOException {
+		String serverAnsw = this.sendMessage(Protocol.SHOW_CARDS, client, projectName);
 		System.out.println(serverAnsw);
 		return;
 	}
@@ -503,15 +615,13 @@ public class Client {
 	/**
 	 * permette di richiedere la visualizzazione di una determinata carta all'interno del progetto
 	 * 
-	 * @param op: identificatore dell'operazione
 	 * @param projectName: nome del progetto nel quale è contenuta la carta
 	 * @param cardName: nome della carta della quale si vogliono le informazioni
 	 * @param client:  SocketChannel del client
 	 * @throws IOException
 	 */
-	private void showCard(String op, String projectName, String cardName,SocketChannel client) throws IOException {
-		String msg = op + " " + projectName + " " + cardName;
-		String serverAnsw = this.sendMessage(msg, client);
+	private void showCard(String projectName, String cardName,SocketChannel client) throws IOException {
+		String serverAnsw = this.sendMessage(Protocol.SHOW_CARD, client, projectName, cardName);
 		System.out.println(serverAnsw);
 		return;
 	}
@@ -524,16 +634,14 @@ public class Client {
 	 * @throws IOException
 	 */
 	private void addCard(String[] parameters, SocketChannel client) throws IOException {
-		StringBuilder msg = new StringBuilder();
+		StringBuilder description = new StringBuilder();
 		
-		msg.append(parameters[0] + " ");
-		msg.append(parameters[1] + " ");
-		msg.append(parameters[2] + " ");
+		//la descrizione è composta da tutti i parametri successivi al nome della carta
 		for(int i = 3; i < parameters.length; i++) {
-			msg.append(parameters[i] + " ");
+			description.append(parameters[i] + " ");
 		}
 		
-		String serverAnsw = this.sendMessage(msg.toString().toString().trim(), client);
+		String serverAnsw = this.sendMessage(Protocol.ADD_CARD, client, parameters[1], parameters[2], description.toString().trim());
 		System.out.println(serverAnsw);
 		return;
 	}
@@ -541,7 +649,6 @@ public class Client {
 	/**
 	 * permette di richiedere lo spostamento di una carta da una lista sorgente ad una di destinazione 
 	 * 
-	 * @param op: identificatore dell'operazione
 	 * @param projectName: nome del progetto nel quale è contenuta la carta da spostare
 	 * @param cardName: nome della carta che si desidera spostare
 	 * @param src: lista sorgente
@@ -549,11 +656,10 @@ public class Client {
 	 * @param client: SocketChannel del client
 	 * @throws IOException
 	 */
-	private void moveCard(String op, String projectName, String cardName, String src, String dest, SocketChannel client) throws IOException {
+	private void moveCard(String projectName, String cardName, String src, String dest, SocketChannel client) throws IOException {
 		
 		//l'utente può anche scrivere i nomi delle liste in maiuscolo, la cosa verrà corretta dall'handler del clients
-		String msg = op + " " + projectName + " " + cardName + " " + src.toUpperCase() + " " + dest.toUpperCase();
-		String serverAnsw = this.sendMessage(msg, client);
+		String serverAnsw = this.sendMessage(Protocol.MOVE_CARD, client, projectName, cardName, src.toUpperCase(), dest.toUpperCase());
 		System.out.println(serverAnsw);
 		return;
 	}
@@ -561,31 +667,62 @@ public class Client {
 	/**
 	 * permette di richiedere la visualizzazione della storia di una carta
 	 * 
-	 * @param op: identificatore dell'operazione
 	 * @param projectName: nome del progetto nel quale è presente la carta
 	 * @param cardName: nome della carta della quale di vuole conoscere la storia
 	 * @param client: SocketChannel del client
 	 * @throws IOException
 	 */
-	private void getCardHistory (String op, String projectName, String cardName, SocketChannel client) throws IOException {
-		String msg = op + " " + projectName + " " + cardName;
-		String serverAnsw = this.sendMessage(msg, client);
+	private void getCardHistory (String projectName, String cardName, SocketChannel client) throws IOException {
+		String serverAnsw = this.sendMessage(Protocol.GET_CARD_HISTORY, client, projectName, cardName);
 		System.out.println(serverAnsw);
 		return;
 	}
 	
+	/**
+	 * permette di richiedere l'esecuzione di più operazioni sulle carte di un progetto in un'unica richiesta,
+	 * le operazioni (add_card e move_card, senza il nome del progetto) vengono lette da un file, una per riga
+	 * 
+	 * @param projectName: nome del progetto
+	 * @param path: percorso del file di operazioni
+	 * @param client: SocketChannel del client
+	 * @throws IOException
+	 */
+	private void batch(String projectName, String path, SocketChannel client) throws IOException {
+		ArrayList<String[]> operations = new ArrayList<String[]>();
+		
+		try(BufferedReader in = new BufferedReader(new FileReader(path))) {
+			String line;
+			while((line = in.readLine()) != null) {
+				if(line.trim().isEmpty()) continue;
+				String[] parameters = this.parseInput(line);
+				
+				//la descrizione di add_card è composta da tutti i parametri successivi al nome della carta
+				if(parameters[0].equals("add_card") && parameters.length > 3) {
+					StringBuilder description = new StringBuilder();
+					for(int i = 2; i < parameters.length; i++) description.append(parameters[i] + " ");
+					parameters = new String[] {parameters[0], parameters[1], description.toString().trim()};
+				}
+				operations.add(parameters);
+			}
+		}
+		
+		try {
+			System.out.println(this.sendMessage(Protocol.BATCH, client, projectName, Protocol.encodeBatch(operations)));
+		}catch (IllegalArgumentException e) {
+			System.out.println("< Errore. " + e.getMessage());
+		}
+	}
+	
 	/**
 	 * permette di unirsi ad una chat di un progetto
 	 * 
-	 * @param op: identificatore dell'operazione
 	 * @param projectName: nome del progetto nel quale è presente la chat a cui l'utente si vuole unire
 	 * @param client: SocketChannel del client
 	 * @throws IOException
 	 */
-	private void joinChat(String op, String projectName, SocketChannel client) throws IOException {
+	private void joinChat(String projectName, SocketChannel client) throws IOException {
 		
-		String msg = op + " " + projectName;
-		String serverAnsw = this.sendMessage(msg, client);
+		String serverAnsw = this.sendMessage(Protocol.JOIN_CHAT, client, projectName);
 		
 		if(!serverAnsw.contains("Errore")) {
 			
@@ -660,14 +797,12 @@ public class Client {
 	/**
 	 * permette di richiedere l'eliminazione di un progetto
 	 * 
-	 * @param op: identificatore dell'operazione
 	 * @param projectName: nome del progetto da liminare
 	 * @param client: SocketChannel del client
 	 * @throws IOException
 	 */
-	private void cancelProject (String op, String projectName, SocketChannel client) throws IOException{
-		String msg = op + " " + projectName;
-		String serverAnsw = this.sendMessage(msg, client);
+	private void cancelProject (String projectName, SocketChannel client) throws IOException{
+		String serverAnsw = this.sendMessage(Protocol.CANCEL_PROJECT, client, projectName);
 		System.out.println(serverAnsw);
 		return;
 	}
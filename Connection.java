@@ -0,0 +1,305 @@
+package progetto_2020_2021;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+
+/**
+ * Connection modella lo stato di una connessione di un client, viene associata alla chiave del canale come attachment.
+ * I buffer di lettura e scrittura vengono presi dal pool del server e riutilizzati per tutte le richieste della connessione.
+ * Il client può inviare più richieste senza attendere le risposte: vengono eseguite una alla volta e le risposte
+ * vengono scritte nello stesso ordine delle richieste
+ *
+ * @author Antonio Guzzi
+ */
+public class Connection {
+
+	/**
+	 * protocollo utilizzato dalla connessione, viene stabilito dal primo byte inviato dal client
+	 */
+	public enum Mode {UNKNOWN, TEXT, BINARY}
+
+	private final BufferPool pool;
+	private Mode mode;
+	private ByteBuffer input; //byte ricevuti e non ancora consumati, sempre in modalità scrittura
+	private ArrayDeque<ByteBuffer> output; //blocchi delle risposte ancora da scrivere sul canale
+	private ArrayDeque<Request> requests; //richieste ricevute e non ancora eseguite, in ordine di arrivo
+	private boolean executing; //true se una richiesta della connessione è in esecuzione su un worker
+	private int inFlight; //richieste ricevute la cui risposta non è ancora stata scritta
+	private int answers; //risposte accodate in output dall'ultima volta che è stato svuotato
+	private final CharsetEncoder encoder; //codifica le risposte direttamente nei buffer del pool
+	private byte[] scratch; //appoggio per la decodifica dei campi delle richieste
+	private long allocatedBytes; //byte allocati dal reactor per la richiesta corrente
+	private volatile Session session; //utente autenticato sulla connessione, null prima del login e dopo il logout
+	private boolean closed; //true dopo la chiusura della connessione, protetto dal lock della connessione
+
+	// ---------------------------------- METODO COSTRUTTORE ---------------------------------- //
+
+	/**
+	 * @param pool: pool da cui prendere i buffer della connessione
+	 * @throws IllegalArgumentException se il pool è nullo
+	 */
+	public Connection(BufferPool pool) throws IllegalArgumentException {
+		if(pool == null) throw new IllegalArgumentException("pool null");
+		this.pool = pool;
+		this.mode = Mode.UNKNOWN;
+		this.input = pool.acquire();
+		this.output = new ArrayDeque<ByteBuffer>();
+		this.requests = new ArrayDeque<Request>();
+		this.executing = false;
+		this.inFlight = 0;
+		this.answers = 0;
+		this.encoder = StandardCharsets.UTF_8.newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		this.scratch = new byte[pool.getBufferDimension()];
+		this.allocatedBytes = 0;
+		this.closed = false;
+	}
+
+	// ---------------------------------- METODI GET ---------------------------------- //
+
+	/**
+	 * @return protocollo utilizzato dalla connessione
+	 */
+	public Mode getMode() {
+		return this.mode;
+	}
+
+	/**
+	 * @return buffer contenente i byte ricevuti e non ancora consumati
+	 */
+	public ByteBuffer getInput() {
+		return this.input;
+	}
+
+	/**
+	 * @return blocchi della risposta ancora da scrivere sul canale
+	 */
+	public ArrayDeque<ByteBuffer> getOutput() {
+		return this.output;
+	}
+
+	/**
+	 * @return sessione dell'utente autenticato sulla connessione, null se nessun utente ha effettuato il login
+	 */
+	public Session getSession() {
+		return this.session;
+	}
+
+	/**
+	 * @return true se una richiesta della connessione è in esecuzione, false altrimenti
+	 */
+	public boolean isExecuting() {
+		return this.executing;
+	}
+
+	/**
+	 * @return true se il client può inviare altre richieste senza superare il limite di richieste in sospeso
+	 */
+	public boolean canRead() {
+		return this.inFlight < Protocol.PIPELINE_DEPTH;
+	}
+
+	/**
+	 * @param length: numero di byte da decodificare
+	 * @return array di appoggio di almeno length byte
+	 */
+	public byte[] getScratch(int length) {
+		if(length > this.scratch.length) this.scratch = new byte[length];
+		return this.scratch;
+	}
+
+	// ---------------------------------- METODI SET ---------------------------------- //
+
+	/**
+	 * @param mode: protocollo utilizzato dalla connessione
+	 */
+	public void setMode(Mode mode) {
+		this.mode = mode;
+	}
+
+	/**
+	 * @param session: sessione dell'utente autenticato sulla connessione, null al logout
+	 */
+	public synchronized void setSession(Session session) {
+		this.session = session;
+	}
+
+	/**
+	 * permette di associare la sessione alla connessione al termine del login. La chiusura della connessione può
+	 * avvenire mentre un worker esegue il login: in tal caso la sessione non viene associata
+	 *
+	 * @param session: sessione dell'utente autenticato
+	 * @return true se la sessione è stata associata, false se la connessione è già stata chiusa
+	 */
+	public synchronized boolean openSession(Session session) {
+		if(this.closed) return false;
+		this.session = session;
+		return true;
+	}
+
+	/**
+	 * permette di segnare la connessione come chiusa e di rimuoverne la sessione, i login successivi non
+	 * associano più alcuna sessione
+	 *
+	 * @return sessione associata alla connessione, null se nessun utente ha effettuato il login
+	 */
+	public synchronized Session closeSession() {
+		this.closed = true;
+		Session session = this.session;
+		this.session = null;
+		return session;
+	}
+
+	/**
+	 * @param executing: true se una richiesta della connessione è in esecuzione, false altrimenti
+	 */
+	public void setExecuting(boolean executing) {
+		this.executing = executing;
+	}
+
+	// ---------------------------------- METODI DI APPOGGIO ---------------------------------- //
+
+	/**
+	 * permette di ingrandire il buffer di input mantenendo quanto già letto, viene usato solo per le richieste
+	 * che non entrano in un buffer del pool
+	 *
+	 * @param capacity: dimensione minima del buffer
+	 */
+	public void ensureInputCapacity(int capacity) {
+		if(capacity <= this.input.capacity()) return;
+		ByteBuffer bigger = ByteBuffer.allocate(capacity);
+		this.input.flip();
+		bigger.put(this.input);
+		this.pool.release(this.input);
+		this.input = bigger;
+	}
+
+	/**
+	 * permette di scartare i byte già consumati dal buffer di input, che deve essere in modalità lettura e viene
+	 * riportato in modalità scrittura. Se il buffer era stato ingrandito e quanto resta entra in un buffer del pool,
+	 * si torna ad utilizzare il pool
+	 */
+	public void compactInput() {
+		if(this.input.isDirect() || this.input.remaining() > this.pool.getBufferDimension()) {
+			this.input.compact();
+			return;
+		}
+		ByteBuffer pooled = this.pool.acquire();
+		pooled.put(this.input);
+		this.input = pooled;
+	}
+
+	/**
+	 * permette di accodare una richiesta ricevuta, le richieste vengono eseguite una alla volta nell'ordine di arrivo
+	 *
+	 * @param request: richiesta decodificata
+	 */
+	public void addRequest(Request request) {
+		this.requests.add(request);
+		this.inFlight++;
+	}
+
+	/**
+	 * @return la prossima richiesta da eseguire, null se non ce ne sono
+	 */
+	public Request pollRequest() {
+		return this.requests.poll();
+	}
+
+	/**
+	 * permette di segnalare che tutte le risposte accodate sono state scritte sul canale
+	 *
+	 * @return numero di risposte scritte
+	 */
+	public int answersWritten() {
+		int written = this.answers;
+		this.inFlight -= written;
+		this.answers = 0;
+		return written;
+	}
+
+	/**
+	 * permette di accodare una risposta da inviare al client: con il protocollo binario la risposta è preceduta
+	 * dalla sua lunghezza, con i comandi testuali viene inviata così com'è per compatibilità con i vecchi client.
+	 * La risposta viene codificata direttamente nei buffer del pool, uno o più a seconda della sua dimensione
+	 *
+	 * @param answer: risposta da inviare al client
+	 */
+	public void enqueueAnswer(String answer) {
+		CharBuffer chars = CharBuffer.wrap(answer);
+		ByteBuffer first = this.pool.acquire();
+		ByteBuffer chunk = first;
+		int length = 0;
+
+		//la lunghezza viene scritta quando la risposta è stata codificata completamente
+		if(this.mode == Mode.BINARY) chunk.putInt(0);
+
+		this.encoder.reset();
+		while(this.encoder.encode(chars, chunk, true).isOverflow()) {
+			length += this.flushChunk(chunk);
+			chunk = this.pool.acquire();
+		}
+		while(this.encoder.flush(chunk).isOverflow()) {
+			length += this.flushChunk(chunk);
+			chunk = this.pool.acquire();
+		}
+		length += this.flushChunk(chunk);
+
+		if(this.mode == Mode.BINARY) first.putInt(0, length - Integer.BYTES);
+		this.answers++;
+	}
+
+	/**
+	 * permette di accodare un blocco della risposta
+	 *
+	 * @param chunk: blocco in modalità scrittura
+	 * @return numero di byte del blocco
+	 */
+	private int flushChunk(ByteBuffer chunk) {
+		chunk.flip();
+		this.output.add(chunk);
+		return chunk.limit();
+	}
+
+	/**
+	 * permette di restituire al pool un blocco della risposta già scritto sul canale
+	 *
+	 * @param chunk: blocco scritto
+	 */
+	public void releaseChunk(ByteBuffer chunk) {
+		this.pool.release(chunk);
+	}
+
+	/**
+	 * permette di sommare i byte allocati dal reactor mentre gestiva la connessione
+	 *
+	 * @param bytes: byte allocati
+	 */
+	public void addAllocatedBytes(long bytes) {
+		this.allocatedBytes += bytes;
+	}
+
+	/**
+	 * @return byte allocati dal reactor dall'ultima chiamata, il contatore viene azzerato
+	 */
+	public long takeAllocatedBytes() {
+		long bytes = this.allocatedBytes;
+		this.allocatedBytes = 0;
+		return bytes;
+	}
+
+	/**
+	 * permette di restituire al pool tutti i buffer della connessione, viene invocato alla chiusura del canale
+	 */
+	public void release() {
+		this.pool.release(this.input);
+		this.input = null;
+		ByteBuffer chunk;
+		while((chunk = this.output.poll()) != null) this.pool.release(chunk);
+	}
+}
@@ -0,0 +1,24 @@
+package progetto_2020_2021;
+
+/**
+ * DurabilityPolicy stabilisce quando le modifiche accodate al journal vengono forzate su disco e quando il client
+ * riceve la risposta
+ * 
+ * @author Antonio Guzzi
+ */
+public enum DurabilityPolicy {
+	/**
+	 * ogni record viene scritto e forzato su disco prima di rispondere, una sincronizzazione per richiesta
+	 */
+	SYNC,
+	/**
+	 * i record di richieste concorrenti vengono raccolti per al massimo un intervallo prefissato e scritti con
+	 * un'unica sincronizzazione, la risposta viene inviata dopo la sincronizzazione che contiene il record
+	 */
+	GROUP,
+	/**
+	 * i record vengono scritti e forzati su disco periodicamente, la risposta viene inviata senza attendere:
+	 * un crash può perdere le modifiche dell'ultimo intervallo
+	 */
+	ASYNC;
+}
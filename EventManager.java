@@ -1,119 +1,379 @@
 package progetto_2020_2021;
 
-import java.io.File;
 import java.io.IOException;
 import java.rmi.RemoteException;
+import java.rmi.UnmarshalException;
 import java.rmi.server.RemoteServer;
-import java.util.*;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.fasterxml.jackson.core.JsonGenerationException;
 import com.fasterxml.jackson.databind.JsonMappingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
 
 /**
- * EventManager implementa l'interfaccia EventManagerInterface e permette al client di eseguire i metodi registrati dal server
+ * EventManager implementa l'interfaccia EventManagerInterface e permette al client di eseguire i metodi registrati dal server.
+ * Le notifiche vengono accodate ad una coda per ogni client e inviate da un pool di thread limitato: chi cambia lo stato
+ * di un utente non attende i client, un client lento ritarda solo le proprie notifiche e quelli che non rispondono
+ * entro il timeout delle chiamate RMI vengono rimossi. Le variazioni che avvengono nella stessa finestra di tempo vengono
+ * accorpate in un'unica notifica, in cui ogni utente compare una sola volta con il suo stato più recente
  * 
  * @author Antonio Guzzi
  */
 public class EventManager extends RemoteServer implements EventManagerInterface {
 	
 	private static final long serialVersionUID = -7691830863689206817L;
-	private List<User> users; //lista degli utenti registrati al servizio
-	private List<NotifyEventInterface> clients; //lista dei client registrati al servizio di notifica
+	private static final int CALLBACK_THREADS = 4; //thread che inviano le notifiche ai client
+	private static final int CALLBACK_QUEUE_DIMENSION = 1024; //client in attesa di un thread libero
+	private static final int CLIENT_QUEUE_DIMENSION = 256; //notifiche in attesa di essere inviate ad un client
+	private static final int CALLBACK_TIMEOUT = 2000; //tempo massimo di una notifica, in ms
+	private static final String FANOUT_METRIC = "notifiche.fanoutUs";
+	private static final String CALL_METRIC = "notifiche.chiamataUs";
+	private static final String EVICTED_METRIC = "notifiche.clientRimossi";
+	private static final String DROPPED_METRIC = "notifiche.scartatePerCodaPiena";
+	private static final int MAX_WINDOW_CHANGES = 512; //utenti oltre i quali la finestra viene inviata prima della scadenza
+	private static final String CHANGES_METRIC = "notifiche.utentiPerNotifica";
+	private static final String BYTES_METRIC = "notifiche.byteNotifica";
+	private static final String TIMED_FLUSH_METRIC = "notifiche.invioPerScadenza";
+	private static final String FULL_FLUSH_METRIC = "notifiche.invioPerDimensione";
+	private static final String COALESCED_METRIC = "notifiche.statiIntermediScartati";
+	
+	private UserRegistry users; //utenti registrati al servizio
+	private final Journal journal; //registro delle modifiche, contiene le registrazioni degli utenti
+	private final StateWriter stateWriter; //scrive in background il file degli utenti registrati
+	private final ConcurrentHashMap<NotifyEventInterface, ClientQueue> clients; //client registrati al servizio di notifica
+	private final ThreadPoolExecutor callbacks; //pool di thread che invia le notifiche
+	private final ConcurrentLinkedQueue<ClientQueue> rejected; //code non accettate dal pool saturo, da affidargli di nuovo
+	private long presenceVersion; //versione dello stato degli utenti, incrementata ad ogni notifica
+	private final long presenceWindow; //durata della finestra in cui le variazioni vengono accorpate, in ms
+	private LinkedHashMap<String, User> changed; //utenti che hanno cambiato stato nella finestra corrente
+	private long windowStart; //istante in cui è iniziata la finestra corrente, in ns
+	private int coalesced; //variazioni della finestra corrente sostituite da una successiva dello stesso utente
 	
 	
 	// ---------------------------------- METODO COSTRUTTORE ---------------------------------- //
 	
 	/**
-	 * @param users: lista degli utenti registrati
+	 * @param users: utenti registrati
+	 * @param journal: registro delle modifiche in cui salvare le registrazioni
+	 * @param stateWriter: thread che scrive i file dello stato, a cui segnalare le registrazioni
+	 * @param presenceWindow: durata in ms della finestra in cui le variazioni di stato vengono accorpate, con 0 ogni
+	 * variazione viene notificata subito
 	 * @throws RemoteException
 	 */
-	public EventManager(List<User> users) throws RemoteException{
+	public EventManager(UserRegistry users, Journal journal, StateWriter stateWriter, long presenceWindow) throws RemoteException{
 		if(users == null) throw new IllegalArgumentException("struttura dati 'users' null");
+		if(journal == null) throw new IllegalArgumentException("journal null");
+		if(stateWriter == null) throw new IllegalArgumentException("stateWriter null");
+		if(presenceWindow < 0) throw new IllegalArgumentException("presenceWindow negativa");
 		this.users = users;
-		this.clients = new ArrayList<NotifyEventInterface>();
+		this.journal = journal;
+		this.stateWriter = stateWriter;
+		this.clients = new ConcurrentHashMap<NotifyEventInterface, ClientQueue>();
+		this.presenceVersion = 0;
+		this.presenceWindow = presenceWindow;
+		this.changed = new LinkedHashMap<String, User>();
+		this.windowStart = 0;
+		this.coalesced = 0;
+		
+		//una chiamata RMI verso un client che non risponde viene interrotta dopo il timeout, la proprietà va impostata
+		//prima che il runtime RMI apra la prima connessione e non sostituisce un valore scelto all'avvio della JVM
+		if(System.getProperty("sun.rmi.transport.tcp.responseTimeout") == null)
+			System.setProperty("sun.rmi.transport.tcp.responseTimeout", String.valueOf(CALLBACK_TIMEOUT));
+		
+		//i thread non impediscono la terminazione del server, le notifiche non inviate verranno recuperate dai client
+		AtomicInteger callbackId = new AtomicInteger(0);
+		this.rejected = new ConcurrentLinkedQueue<ClientQueue>();
+		this.callbacks = new ThreadPoolExecutor(CALLBACK_THREADS, CALLBACK_THREADS, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(CALLBACK_QUEUE_DIMENSION), r -> {
+					Thread thread = new Thread(r, "callback-" + callbackId.getAndIncrement());
+					thread.setDaemon(true);
+					return thread;
+				});
 	}
 	
 	// ---------------------------------- METODI IMPLEMENTATI DALL'INTERFACCIA ---------------------------------- //
 	
 	@Override
-	public synchronized boolean  register(String nickName, String password) throws RemoteException,JsonGenerationException, JsonMappingException, IOException {
-		
-		//verifico che il nickName sia unico
-		for(User tmp : this.users) {
-			if(tmp.getNickName().equals(nickName)) return false;
-		}
+	public boolean register(String nickName, String password) throws RemoteException,JsonGenerationException, JsonMappingException, IOException {
 		
-		//se il nickName è unico, aggiungo l'utente tra gli utenti registrati
-		this.users.add(new User(nickName,password,"Offline"));
+		//la verifica sull'unicità del nickName e l'inserimento sono atomici, non serve bloccare l'intero event manager
+		User user = new User(nickName, password, UserState.Offline);
+		if(!this.users.register(user)) return false;
 		System.out.println("server WORTH: nuovo utente registrato correttamente");
 		
-		//Serializzazione con Jackson dell'ArrayList di user
-		ObjectMapper mapper = new ObjectMapper();
-		String path = "." + File.separator + "recoveryDir" + File.separator + "registeredUsers.json";
-		File file = new File(path); 
-		mapper.enable(SerializationFeature.INDENT_OUTPUT);
-		mapper.writeValue(file, users);
+		//la registrazione viene accodata al journal, l'utente viene accodato al file degli utenti in background
+		this.stateWriter.markUser(user);
+		this.journal.commit(this.journal.append(Journal.REGISTER_USER, System.currentTimeMillis(), nickName, password));
 		
 		//notifica evento di nuovo utente registrato
-		StringBuilder str = new StringBuilder();
-		for(User tmp : this.users) {
-			 str.append(tmp.getNickName()+ ";" +tmp.getState() + " ");
-		 }
-		update(str.toString().trim());
+		this.presenceChanged(user);
 		return true;
 	}
 	
 	@Override
-	public synchronized void registerForCallback(NotifyEventInterface ClientInterface) throws RemoteException {
-		//due client diversi possono eseguire register e unregister, entrambi i metodi vanno a modificare la struttura dati nello stesso momento
-		//questo può portare ad uno stato inconsistente, clients necessita quini di essere una struttura sinconizzata
-		synchronized(clients) {
-			if(!clients.contains(ClientInterface)) {
-				clients.add(ClientInterface);
-				return;
-			}
-		}
-		return;
+	public void registerForCallback(NotifyEventInterface ClientInterface) throws RemoteException {
+		//la mappa è concorrente: registrazioni e cancellazioni non bloccano l'invio delle notifiche
+		this.clients.putIfAbsent(ClientInterface, new ClientQueue(ClientInterface));
 	}
 	
 	@Override
-	public synchronized void unRegisterForCallback(NotifyEventInterface ClientInterface) throws RemoteException {
-		//due client diversi possono eseguire register e unregister, entrambi i metodi vanno a modificare la struttura dati nello stesso momento
-		//questo può portare ad uno stato inconsistente, clients necessita quini di essere una struttura sincronizzata
-		synchronized(clients) {
-			if (clients.remove(ClientInterface)) System.out.println("server WORTH: logout dell'utente eseguito con successo: Client unregistered");
-			else System.out.println("server WORTH: Errore nel logout dell'utente: Unable to unregister client");
+	public void unRegisterForCallback(NotifyEventInterface ClientInterface) throws RemoteException {
+		ClientQueue queue = this.clients.remove(ClientInterface);
+		if (queue != null) {
+			queue.clear();
+			System.out.println("server WORTH: logout dell'utente eseguito con successo: Client unregistered");
 		}
+		else System.out.println("server WORTH: Errore nel logout dell'utente: Unable to unregister client");
+	}
+	
+	@Override
+	public synchronized String getPresence() throws RemoteException {
+		//gli stati successivi alla versione possono essere già visibili, le notifiche sono idempotenti
+		return this.presenceVersion + "\n" + this.users.toPresenceString();
 	}
 	
 	//  ---------------------------------- METODI DI APPOGGIO  ----------------------------------  //
 	
 	/**
-	 * permette l'update della struttura dati del client
+	 * permette di avviare il thread che invia le variazioni accorpate allo scadere di ogni finestra, va invocato
+	 * all'avvio del server se la finestra non è nulla
+	 */
+	public void startPublisher() {
+		if(this.presenceWindow == 0) return;
+		Thread publisher = new Thread(this::publishLoop, "presence-publisher");
+		publisher.setDaemon(true);
+		publisher.start();
+	}
+	
+	/**
+	 * permette di notificare ai client il nuovo stato di un utente: viene inviata solo la variazione, con la nuova
+	 * versione dello stato degli utenti. La variazione viene aggiunta alla finestra corrente e inviata allo scadere
+	 * di essa, chi la segnala non attende né la finestra né i client: la risposta al login contiene già lo stato
+	 * completo letto con getPresence, a cui la notifica successiva viene applicata senza effetti
 	 * 
-	 * @param map: hashmap dell server utilizzarta per effettuare l'update della struttura dati del client
-	 * @throws RemoteException
+	 * @param user: utente che ha cambiato stato o si è appena registrato
+	 */
+	public synchronized void presenceChanged(User user) {
+		if(this.presenceWindow == 0) {
+			this.changed.put(user.getNickName(), user);
+			this.publish();
+			return;
+		}
+		if(this.changed.put(user.getNickName(), user) != null) this.coalesced++;
+		if(this.changed.size() == 1) {
+			//inizia una nuova finestra
+			this.windowStart = System.nanoTime();
+			this.notifyAll();
+		}
+		else if(this.changed.size() >= MAX_WINDOW_CHANGES) this.notifyAll();
+	}
+	
+	/**
+	 * eseguito dal thread presence-publisher: attende che nella finestra ci sia almeno una variazione e la invia allo
+	 * scadere della finestra, o prima se contiene MAX_WINDOW_CHANGES utenti
+	 */
+	private synchronized void publishLoop() {
+		long window = TimeUnit.MILLISECONDS.toNanos(this.presenceWindow);
+		try {
+			while(true) {
+				while(this.changed.isEmpty()) this.wait();
+				long remaining;
+				while(this.changed.size() < MAX_WINDOW_CHANGES && (remaining = this.windowStart + window - System.nanoTime()) > 0)
+					this.wait(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+				
+				Metrics.record(this.changed.size() >= MAX_WINDOW_CHANGES ? FULL_FLUSH_METRIC : TIMED_FLUSH_METRIC, 1);
+				this.publish();
+			}
+		}catch (InterruptedException e) {return;}
+	}
+	
+	/**
+	 * permette di inviare le variazioni della finestra corrente come un'unica versione, va invocato con il lock
+	 * dell'event manager: l'assegnazione della versione e l'inserimento nelle code avvengono insieme in modo che
+	 * ogni client riceva le versioni in ordine. Lo stato di ogni utente viene letto al momento dell'invio
 	 */
-	public void update(String map) throws RemoteException {
+	private void publish() {
+		StringBuilder changes = new StringBuilder();
+		for(User user : this.changed.values()) {
+			if(changes.length() > 0) changes.append(' ');
+			changes.append(user.getNickName()).append(';').append(user.getState());
+		}
+		Metrics.record(CHANGES_METRIC, this.changed.size());
+		Metrics.record(BYTES_METRIC, changes.length());
+		Metrics.record(COALESCED_METRIC, this.coalesced);
+		this.changed = new LinkedHashMap<String, User>();
+		this.coalesced = 0;
+		
+		this.presenceVersion++;
+		Notification notification = new Notification(this.presenceVersion, changes.toString());
+		for(ClientQueue queue : this.clients.values()) queue.offer(notification);
 		System.out.println("server WORTH: Update mandato a tutti i client");
-        this.doCallBacks(map);
 	}
 	
 	/**
-	 * implementa la ricerca del client all'interno della struttura dati degli utenti registrati al sistema di notifiche
+	 * permette di rimuovere un client che non ha risposto ad una notifica
 	 * 
-	 * @param map  hashmap dell server utilizzarta per effettuare l'update della struttura dati del client
-	 * @throws RemoteException
+	 * @param queue: coda del client da rimuovere
+	 */
+	private void evict(ClientQueue queue) {
+		if(this.clients.remove(queue.client, queue)) {
+			Metrics.record(EVICTED_METRIC, 1);
+			System.out.println("server WORTH: client rimosso dal servizio di notifica, non risponde alle callback");
+		}
+		queue.clear();
+	}
+	
+	/**
+	 * @param e: eccezione di una callback
+	 * @return true se il client non implementa il metodo invocato
 	 */
-	public synchronized void  doCallBacks(String map) throws RemoteException { //chiamata dal server, serve sincronizzata?
-		NotifyEventInterface tmp = null;
-		for(NotifyEventInterface client : this.clients) {
+	private static boolean unknownMethod(RemoteException e) {
+		for(Throwable cause = e; cause != null; cause = cause.getCause()) {
+			if(cause instanceof UnmarshalException && cause.getMessage() != null && cause.getMessage().startsWith("unrecognized method hash")) return true;
+		}
+		return false;
+	}
+	
+	// ---------------------------------- CLASSI DI APPOGGIO ---------------------------------- //
+	
+	/**
+	 * variazione dello stato degli utenti da inviare ai client
+	 */
+	private static class Notification {
+		
+		private final long version;
+		private final String changes;
+		private final long created; //istante in cui la variazione è stata accodata, in ns
+		
+		private Notification(long version, String changes) {
+			this.version = version;
+			this.changes = changes;
+			this.created = System.nanoTime();
+		}
+	}
+	
+	/**
+	 * notifiche in attesa di essere inviate ad un client. Al più un thread del pool alla volta svuota la coda, così le
+	 * notifiche arrivano al client nell'ordine delle versioni. Se la coda è piena le notifiche più vecchie vengono
+	 * scartate: il client rileva la versione mancante e richiede lo stato completo con getPresence
+	 */
+	private class ClientQueue implements Runnable {
+		
+		private final NotifyEventInterface client;
+		private final ArrayDeque<Notification> pending;
+		private boolean scheduled; //true se la coda è stata affidata al pool
+		private boolean closed; //true se il client è stato rimosso, le notifiche successive vengono ignorate
+		private boolean legacy; //true se il client conosce solo le notifiche senza versione
+		private boolean retrying; //true se la coda è tra quelle rifiutate dal pool
+		
+		private ClientQueue(NotifyEventInterface client) {
+			this.client = client;
+			this.pending = new ArrayDeque<Notification>();
+			this.scheduled = false;
+			this.closed = false;
+			this.legacy = false;
+			this.retrying = false;
+		}
+		
+		/**
+		 * permette di accodare una notifica e di affidare la coda al pool se non lo è già
+		 */
+		private synchronized void offer(Notification notification) {
+			if(this.closed) return;
+			if(this.pending.size() == CLIENT_QUEUE_DIMENSION) {
+				this.pending.poll();
+				Metrics.record(DROPPED_METRIC, 1);
+			}
+			this.pending.add(notification);
+			this.schedule();
+		}
+		
+		/**
+		 * permette di affidare la coda al pool se contiene notifiche e non lo è già. Se il pool è saturo la coda viene
+		 * ricordata tra quelle rifiutate e affidata di nuovo al pool appena un suo thread termina di svuotarne un'altra
+		 */
+		private synchronized void schedule() {
+			if(this.closed || this.scheduled || this.pending.isEmpty()) return;
 			try {
-				client.notifyEvent(map);
-			}catch(RemoteException e) {tmp = client;}
+				callbacks.execute(this);
+				this.scheduled = true;
+			}catch (RejectedExecutionException e) {
+				if(this.retrying) return;
+				this.retrying = true;
+				rejected.add(this);
+			}
+		}
+		
+		/**
+		 * permette di affidare di nuovo al pool una coda rifiutata
+		 */
+		private synchronized void retry() {
+			this.retrying = false;
+			this.schedule();
+		}
+		
+		private synchronized void clear() {
+			this.closed = true;
+			this.pending.clear();
+		}
+		
+		@Override
+		public void run() {
+			this.drain();
+			//il thread si è liberato: le code rifiutate in precedenza possono essere affidate di nuovo al pool
+			ClientQueue queue;
+			while(callbacks.getQueue().remainingCapacity() > 0 && (queue = rejected.poll()) != null) queue.retry();
+		}
+		
+		/**
+		 * permette di inviare al client le notifiche in coda, fino a svuotarla o alla rimozione del client
+		 */
+		private void drain() {
+			while(true) {
+				Notification notification;
+				synchronized(this) {
+					notification = this.pending.poll();
+					if(notification == null) {
+						this.scheduled = false;
+						return;
+					}
+				}
+				long start = System.nanoTime();
+				try {
+					this.send(notification);
+				}catch (RemoteException e) {
+					evict(this);
+					synchronized(this) {this.scheduled = false;}
+					return;
+				}
+				long end = System.nanoTime();
+				Metrics.record(CALL_METRIC, (end - start) / 1000);
+				Metrics.record(FANOUT_METRIC, (end - notification.created) / 1000);
+			}
+		}
+		
+		/**
+		 * permette di inviare una notifica al client: un client precedente alle notifiche versionate non riconosce il
+		 * metodo con la versione, riceve da quel momento le variazioni con il metodo senza versione
+		 */
+		private void send(Notification notification) throws RemoteException {
+			if(!this.legacy) {
+				try {
+					this.client.notifyEvent(notification.version, notification.changes);
+					return;
+				}catch (RemoteException e) {
+					if(!unknownMethod(e)) throw e;
+					this.legacy = true;
+				}
+			}
+			this.client.notifyEvent(notification.changes);
 		}
-		if(tmp != null) this.clients.remove(tmp);
 	}
 }
@@ -42,4 +42,12 @@ public interface EventManagerInterface extends Remote {
 	 * @throws RemoteException
 	 */
 	public void unRegisterForCallback (NotifyEventInterface ClientInterface) throws RemoteException;
+	
+	/**
+	 * permette ad un client di ottenere lo stato completo degli utenti, quando si accorge di aver perso delle notifiche
+	 * 
+	 * @return versione dello stato seguita, sulla riga successiva, dalle coppie nome;stato separate da spazi
+	 * @throws RemoteException
+	 */
+	public String getPresence() throws RemoteException;
 }
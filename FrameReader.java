@@ -0,0 +1,64 @@
+package progetto_2020_2021;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * FrameReader permette al client di leggere le risposte del server WORTH, ogni risposta è preceduta dalla sua lunghezza
+ * e viene ricomposta indipendentemente dal numero di letture necessarie e dalla sua dimensione
+ *
+ * @author Antonio Guzzi
+ */
+public class FrameReader {
+
+	private final static int BUFFER_DIMENSION = 1024;
+	private final ByteBuffer length;
+	private ByteBuffer frame;
+
+	// ---------------------------------- METODO COSTRUTTORE ---------------------------------- //
+
+	public FrameReader() {
+		this.length = ByteBuffer.allocate(Integer.BYTES);
+		this.frame = ByteBuffer.allocate(BUFFER_DIMENSION);
+	}
+
+	// ---------------------------------- METODI DI APPOGGIO ---------------------------------- //
+
+	/**
+	 * permette di leggere dal canale (in modalità bloccante) una risposta completa
+	 *
+	 * @param channel: canale dal quale leggere la risposta
+	 * @return la risposta del server
+	 * @throws IOException se il canale viene chiuso prima che la risposta sia completa
+	 */
+	public String readFrame(ReadableByteChannel channel) throws IOException {
+		//la prima parte della risposta consiste nella sua lunghezza
+		this.length.clear();
+		this.readFully(channel, this.length);
+		int frameLength = this.length.getInt(0);
+		if(frameLength < 0) throw new IOException("lunghezza della risposta non valida: " + frameLength);
+
+		//il buffer viene ingrandito solo se la risposta non ci sta, in modo da riutilizzarlo per le risposte successive
+		if(frameLength > this.frame.capacity()) this.frame = ByteBuffer.allocate(Math.max(frameLength, 2 * this.frame.capacity()));
+		this.frame.clear();
+		this.frame.limit(frameLength);
+		this.readFully(channel, this.frame);
+		return new String(this.frame.array(), 0, frameLength, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * permette di leggere dal canale fino a riempire il buffer
+	 *
+	 * @param channel: canale dal quale leggere
+	 * @param buffer: buffer da riempire
+	 * @throws IOException se il canale viene chiuso prima di aver riempito il buffer
+	 */
+	private void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+		while(buffer.hasRemaining()) {
+			if(channel.read(buffer) == -1) throw new EOFException("connessione chiusa dal server");
+		}
+	}
+}
@@ -0,0 +1,532 @@
+package progetto_2020_2021;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Journal è il registro append-only delle modifiche allo stato del server: ogni modifica (creazione di un progetto,
+ * aggiunta di un membro o di una carta, spostamento di una carta, eliminazione di un progetto, registrazione di un
+ * utente) viene accodata al file come record di dimensione proporzionale alla modifica, invece di riscrivere i file
+ * dello stato. Al riavvio i record vengono riapplicati nell'ordine in cui sono stati scritti.
+ * Formato di un record: lunghezza del contenuto (int), CRC32 del contenuto (int), contenuto: numero di sequenza (long),
+ * istante della modifica (long), tipo (byte), numero di campi (byte) e per ogni campo lunghezza (int) e byte UTF-8.
+ * Un record incompleto o con CRC errato (scrittura interrotta da un crash) termina il journal e viene scartato.
+ * Il journal è diviso in segmenti: i record vengono accodati al segmento corrente (journal.log), rotate lo chiude
+ * rinominandolo journal-N.log, dove N è il numero di sequenza del suo ultimo record, e truncate elimina i segmenti
+ * chiusi le cui modifiche sono già state salvate da uno snapshot. Ogni segmento corrente inizia con un record di
+ * checkpoint che riporta l'ultimo numero di sequenza assegnato, così la numerazione prosegue anche se tutti i
+ * segmenti precedenti sono stati eliminati.
+ * Con le politiche GROUP e ASYNC i record vengono accodati in memoria e un thread dedicato li scrive sul segmento
+ * corrente con un'unica scrittura e un'unica FileChannel.force per tutti i record raccolti; con GROUP chi accoda
+ * un record attende con commit che sia su disco prima di rispondere al client
+ *
+ * @author Antonio Guzzi
+ */
+public class Journal {
+
+	public static final byte CREATE_PROJECT = 1; //nome del progetto, creatore, specifica del workflow ("" per il default)
+	public static final byte ADD_MEMBER = 2; //nome del progetto, nickname del nuovo membro
+	public static final byte ADD_CARD = 3; //nome del progetto, nome della carta, descrizione
+	public static final byte MOVE_CARD = 4; //nome del progetto, nome della carta, lista sorgente, lista destinazione
+	public static final byte DELETE_PROJECT = 5; //nome del progetto
+	public static final byte REGISTER_USER = 6; //nickname, password
+	private static final byte CHECKPOINT = 0; //nessun campo, il numero di sequenza è l'ultimo già assegnato
+
+	private static final String CURRENT_SEGMENT = "journal.log";
+	private static final String SEGMENT_PREFIX = "journal-";
+	private static final String SEGMENT_SUFFIX = ".log";
+
+	private static final int HEADER_DIMENSION = 2 * Integer.BYTES;
+	private static final int MAX_RECORD_DIMENSION = 16 * 1024 * 1024;
+	//byte accodati oltre i quali la scrittura non attende altri record
+	private static final int GROUP_COMMIT_DIMENSION = 256 * 1024;
+	private static final String COMMIT_METRIC = "journal.attesaCommitUs";
+	private static final String FSYNC_METRIC = "journal.fsyncUs";
+	private static final String GROUP_METRIC = "journal.recordPerFsync";
+
+	private final File dir;
+	private final File file; //segmento corrente
+	private final DurabilityPolicy policy;
+	private final long maxDelay; //attesa massima in millisecondi per raccogliere i record di una scrittura
+	private final Object writeLock; //protegge le scritture sul canale, viene acquisito prima del lock del journal
+	private FileChannel channel; //aperto in append dopo il recupero
+	private ByteBuffer pending; //record accodati e non ancora scritti sul canale, in modalità scrittura
+	private ByteBuffer writing; //record in scrittura da parte del thread di commit
+	private int pendingRecords;
+	private long firstPendingTime; //istante in cui è stato accodato il primo record in attesa
+	private final CRC32 crc;
+	private long lastSeq; //numero di sequenza dell'ultimo record accodato o recuperato
+	private long committedSeq; //numero di sequenza dell'ultimo record forzato su disco
+	private IOException failure; //errore del thread di commit, le modifiche successive non sono più salvate
+
+	// ---------------------------------- METODO COSTRUTTORE ---------------------------------- //
+
+	/**
+	 * @param dir: cartella che contiene i segmenti del journal
+	 * @param policy: politica con cui i record vengono forzati su disco
+	 * @param maxDelay: con GROUP attesa massima in millisecondi per raccogliere i record di una scrittura, con ASYNC
+	 * intervallo tra due scritture
+	 * @throws IllegalArgumentException se la cartella o la politica sono nulle o l'attesa è negativa
+	 */
+	public Journal(File dir, DurabilityPolicy policy, long maxDelay) throws IllegalArgumentException {
+		if(dir == null) throw new IllegalArgumentException("dir null");
+		if(policy == null) throw new IllegalArgumentException("policy null");
+		if(maxDelay < 0) throw new IllegalArgumentException("maxDelay negativo");
+		this.dir = dir;
+		this.file = new File(dir, CURRENT_SEGMENT);
+		this.policy = policy;
+		this.maxDelay = maxDelay;
+		this.writeLock = new Object();
+		this.pending = ByteBuffer.allocate(64 * 1024);
+		this.writing = ByteBuffer.allocate(64 * 1024);
+		this.pendingRecords = 0;
+		this.crc = new CRC32();
+		this.lastSeq = 0;
+		this.committedSeq = 0;
+	}
+
+	// ---------------------------------- METODI GET ---------------------------------- //
+
+	/**
+	 * @return numero di sequenza dell'ultimo record scritto o recuperato
+	 */
+	public synchronized long getLastSeq() {
+		return this.lastSeq;
+	}
+
+	/**
+	 * @return dimensione in byte del segmento corrente, compresi i record non ancora scritti
+	 * @throws IOException
+	 */
+	public synchronized long size() throws IOException {
+		return this.channel == null ? 0 : this.channel.size() + this.pending.position();
+	}
+
+	/**
+	 * @return politica con cui i record vengono forzati su disco
+	 */
+	public DurabilityPolicy getPolicy() {
+		return this.policy;
+	}
+
+	// ---------------------------------- METODI DI APPOGGIO ---------------------------------- //
+
+	/**
+	 * permette di riapplicare i record del journal, prima quelli dei segmenti chiusi e poi quelli del segmento
+	 * corrente, e di aprirlo in scrittura: deve essere invocato prima di append. Se l'ultimo record del segmento
+	 * corrente è incompleto o danneggiato il file viene troncato all'ultimo record valido
+	 *
+	 * @param applier: applica allo stato del server un record recuperato
+	 * @return numero di record recuperati
+	 * @throws IOException se il journal non può essere letto o aperto
+	 */
+	public synchronized int recover(Consumer<Record> applier) throws IOException {
+		int[] recovered = {0};
+		for(File segment : this.closedSegments()) {
+			//i segmenti chiusi sono stati forzati su disco alla rotazione, un record danneggiato non dovrebbe esserci
+			long valid = this.replay(segment, applier, recovered);
+			if(valid < segment.length()) System.out.println("Server WORTH: segmento " + segment.getName() + " danneggiato dopo " + valid + " byte");
+		}
+		long valid = this.file.exists() ? this.replay(this.file, applier, recovered) : 0;
+
+		this.channel = FileChannel.open(this.file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		if(this.channel.size() > valid) {
+			System.out.println("Server WORTH: journal troncato all'ultimo record valido (" + valid + " byte su " + this.channel.size() + ")");
+			this.channel.truncate(valid);
+		}
+		this.channel.position(valid);
+		if(valid == 0) this.writeCheckpoint();
+		this.committedSeq = this.lastSeq;
+
+		if(this.policy != DurabilityPolicy.SYNC) {
+			Thread committer = new Thread(this::commitLoop, "journal-committer");
+			committer.setDaemon(true);
+			committer.start();
+		}
+		return recovered[0];
+	}
+
+	/**
+	 * permette di chiudere il segmento corrente e di iniziarne uno nuovo, viene invocato prima di uno snapshot:
+	 * le modifiche dei segmenti chiusi saranno tutte contenute nello snapshot
+	 *
+	 * @return numero di sequenza dell'ultimo record del segmento chiuso
+	 * @throws IOException
+	 * @throws IllegalStateException se il journal non è ancora stato recuperato
+	 */
+	public long rotate() throws IOException, IllegalStateException {
+		synchronized(this.writeLock) {
+			synchronized(this) {
+				if(this.channel == null) throw new IllegalStateException("journal non ancora recuperato");
+
+				//se il segmento con questo numero esiste già non sono stati accodati record dall'ultima rotazione
+				File closed = new File(this.dir, SEGMENT_PREFIX + this.lastSeq + SEGMENT_SUFFIX);
+				if(closed.exists()) return this.lastSeq;
+
+				//i record ancora in memoria appartengono al segmento che viene chiuso
+				this.flushPending();
+				this.channel.force(true);
+				this.markCommitted(this.lastSeq);
+				this.channel.close();
+				Files.move(this.file.toPath(), closed.toPath(), StandardCopyOption.ATOMIC_MOVE);
+				this.channel = FileChannel.open(this.file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+				this.writeCheckpoint();
+				return this.lastSeq;
+			}
+		}
+	}
+
+	/**
+	 * permette di eliminare i segmenti chiusi che contengono solo record con numero di sequenza minore o uguale a seq
+	 *
+	 * @param seq: numero di sequenza fino al quale le modifiche sono state salvate da uno snapshot
+	 * @return numero di segmenti eliminati
+	 */
+	public synchronized int truncate(long seq) {
+		int deleted = 0;
+		for(File segment : this.closedSegments()) {
+			if(segmentSeq(segment) <= seq && segment.delete()) deleted++;
+		}
+		return deleted;
+	}
+
+	/**
+	 * permette di accodare un record al journal: con SYNC il record è su disco al ritorno del metodo, con GROUP e
+	 * ASYNC viene scritto dal thread di commit. Prima di rispondere al client va invocato commit
+	 *
+	 * @param type: tipo della modifica
+	 * @param time: istante della modifica in millisecondi
+	 * @param fields: campi della modifica
+	 * @return numero di sequenza assegnato al record
+	 * @throws IOException se la scrittura fallisce o se il thread di commit ha fallito
+	 * @throws IllegalStateException se il journal non è ancora stato recuperato
+	 */
+	public synchronized long append(byte type, long time, String... fields) throws IOException, IllegalStateException {
+		if(this.channel == null) throw new IllegalStateException("journal non ancora recuperato");
+		if(this.failure != null) throw new IOException("journal non disponibile", this.failure);
+
+		long seq = this.lastSeq + 1;
+		if(this.pending.position() == 0) this.firstPendingTime = System.currentTimeMillis();
+		this.encode(seq, time, type, fields);
+		this.pendingRecords++;
+		this.lastSeq = seq;
+
+		if(this.policy == DurabilityPolicy.SYNC) {
+			long start = System.nanoTime();
+			this.flushPending();
+			this.channel.force(false);
+			Metrics.record(FSYNC_METRIC, (System.nanoTime() - start) / 1000);
+			this.markCommitted(seq);
+		}
+		//il thread di commit attende il primo record e, raccolti abbastanza byte, non aspetta la fine dell'intervallo
+		else if(this.pendingRecords == 1 || this.pending.position() >= GROUP_COMMIT_DIMENSION) this.notifyAll();
+		return seq;
+	}
+
+	/**
+	 * permette di attendere che un record sia stato forzato su disco, con ASYNC ritorna subito
+	 *
+	 * @param seq: numero di sequenza restituito da append
+	 * @throws IOException se il thread di commit ha fallito
+	 */
+	public void commit(long seq) throws IOException {
+		if(this.policy == DurabilityPolicy.ASYNC) return;
+		long start = System.nanoTime();
+		synchronized(this) {
+			while(this.committedSeq < seq && this.failure == null) {
+				try {
+					this.wait();
+				}catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("attesa del commit interrotta");
+				}
+			}
+			if(this.committedSeq < seq) throw new IOException("journal non disponibile", this.failure);
+		}
+		Metrics.record(COMMIT_METRIC, (System.nanoTime() - start) / 1000);
+	}
+
+	/**
+	 * permette di chiudere il journal dopo aver forzato su disco i record accodati
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		synchronized(this.writeLock) {
+			synchronized(this) {
+				if(this.channel == null) return;
+				this.flushPending();
+				this.channel.force(false);
+				this.markCommitted(this.lastSeq);
+				this.channel.close();
+				this.channel = null;
+				this.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * ciclo del thread di commit: attende i record accodati, ne raccoglie altri per al massimo maxDelay e li
+	 * scrive con un'unica scrittura e un'unica sincronizzazione, mentre le nuove richieste accodano nell'altro buffer
+	 */
+	private void commitLoop() {
+		while(true) {
+			try {
+				synchronized(this) {
+					while(this.pendingRecords == 0 && this.channel != null) this.wait();
+					if(this.channel == null) return;
+					long remaining;
+					while(this.pending.position() < GROUP_COMMIT_DIMENSION && (remaining = this.firstPendingTime + this.maxDelay - System.currentTimeMillis()) > 0) this.wait(remaining);
+				}
+
+				long committed;
+				int records;
+				long start;
+				synchronized(this.writeLock) {
+					synchronized(this) {
+						//una rotazione o la chiusura potrebbero aver già scritto i record
+						if(this.channel == null) return;
+						if(this.pendingRecords == 0) continue;
+						ByteBuffer tmp = this.writing;
+						this.writing = this.pending;
+						this.pending = tmp;
+						this.pending.clear();
+						committed = this.lastSeq;
+						records = this.pendingRecords;
+						this.pendingRecords = 0;
+					}
+					start = System.nanoTime();
+					this.writing.flip();
+					while(this.writing.hasRemaining()) this.channel.write(this.writing);
+					this.channel.force(false);
+				}
+				Metrics.record(FSYNC_METRIC, (System.nanoTime() - start) / 1000);
+				Metrics.record(GROUP_METRIC, records);
+				synchronized(this) {
+					this.markCommitted(committed);
+				}
+			}catch (InterruptedException e) {
+				return;
+			}catch (IOException e) {
+				e.printStackTrace();
+				synchronized(this) {
+					this.failure = e;
+					this.notifyAll();
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * permette di scrivere sul canale i record accodati, va invocato con il lock del journal e con writeLock o
+	 * senza thread di commit
+	 *
+	 * @throws IOException
+	 */
+	private void flushPending() throws IOException {
+		this.pending.flip();
+		while(this.pending.hasRemaining()) this.channel.write(this.pending);
+		this.pending.clear();
+		this.pendingRecords = 0;
+	}
+
+	/**
+	 * permette di segnalare a chi attende in commit che i record fino a seq sono su disco
+	 *
+	 * @param seq: numero di sequenza dell'ultimo record forzato su disco
+	 */
+	private void markCommitted(long seq) {
+		if(seq > this.committedSeq) this.committedSeq = seq;
+		this.notifyAll();
+	}
+
+	/**
+	 * permette di riapplicare i record di un segmento
+	 *
+	 * @param segment: segmento da leggere
+	 * @param applier: applica allo stato del server un record recuperato
+	 * @param recovered: contatore dei record recuperati
+	 * @return posizione successiva all'ultimo record valido del segmento
+	 * @throws IOException
+	 */
+	private long replay(File segment, Consumer<Record> applier, int[] recovered) throws IOException {
+		long valid = 0;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment)))) {
+			byte[] payload = new byte[1024];
+			while(true) {
+				int length;
+				int checksum;
+				try {
+					length = in.readInt();
+					checksum = in.readInt();
+					if(length <= 0 || length > MAX_RECORD_DIMENSION) break;
+					if(length > payload.length) payload = new byte[length];
+					in.readFully(payload, 0, length);
+				}catch (EOFException e) {break;}
+
+				this.crc.reset();
+				this.crc.update(payload, 0, length);
+				if((int) this.crc.getValue() != checksum) break;
+
+				Record recovery = decode(ByteBuffer.wrap(payload, 0, length));
+				this.lastSeq = Math.max(this.lastSeq, recovery.getSeq());
+				valid += HEADER_DIMENSION + length;
+				if(recovery.getType() == CHECKPOINT) continue;
+				applier.accept(recovery);
+				recovered[0]++;
+			}
+		}
+		return valid;
+	}
+
+	/**
+	 * permette di scrivere all'inizio del segmento corrente il record di checkpoint
+	 *
+	 * @throws IOException
+	 */
+	private void writeCheckpoint() throws IOException {
+		this.encode(this.lastSeq, System.currentTimeMillis(), CHECKPOINT, new String[0]);
+		this.flushPending();
+	}
+
+	/**
+	 * @return segmenti chiusi in ordine di numero di sequenza
+	 */
+	private ArrayList<File> closedSegments() {
+		ArrayList<File> segments = new ArrayList<File>();
+		File[] files = this.dir.listFiles();
+		if(files == null) return segments;
+		for(File segment : files) {
+			if(segmentSeq(segment) >= 0) segments.add(segment);
+		}
+		segments.sort(Comparator.comparingLong(Journal::segmentSeq));
+		return segments;
+	}
+
+	/**
+	 * @param segment: file della cartella del journal
+	 * @return numero di sequenza dell'ultimo record del segmento chiuso, -1 se il file non è un segmento chiuso
+	 */
+	private static long segmentSeq(File segment) {
+		String name = segment.getName();
+		if(!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) return -1;
+		try {
+			return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+		}catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * permette di codificare un record in coda ai record accodati, il buffer viene ingrandito se necessario
+	 */
+	private void encode(long seq, long time, byte type, String[] fields) {
+		byte[][] encoded = new byte[fields.length][];
+		int length = 2 * Long.BYTES + 2;
+		for(int i = 0; i < fields.length; i++) {
+			encoded[i] = fields[i].getBytes(StandardCharsets.UTF_8);
+			length += Integer.BYTES + encoded[i].length;
+		}
+		if(this.pending.remaining() < HEADER_DIMENSION + length) {
+			ByteBuffer bigger = ByteBuffer.allocate(Math.max(2 * this.pending.capacity(), this.pending.position() + HEADER_DIMENSION + length));
+			this.pending.flip();
+			bigger.put(this.pending);
+			this.pending = bigger;
+		}
+
+		int start = this.pending.position();
+		this.pending.position(start + HEADER_DIMENSION);
+		this.pending.putLong(seq).putLong(time).put(type).put((byte) fields.length);
+		for(byte[] field : encoded) this.pending.putInt(field.length).put(field);
+
+		this.crc.reset();
+		this.crc.update(this.pending.array(), start + HEADER_DIMENSION, length);
+		this.pending.putInt(start, length).putInt(start + Integer.BYTES, (int) this.crc.getValue());
+	}
+
+	/**
+	 * permette di decodificare il contenuto di un record
+	 */
+	private static Record decode(ByteBuffer payload) {
+		long seq = payload.getLong();
+		long time = payload.getLong();
+		byte type = payload.get();
+		String[] fields = new String[payload.get()];
+		for(int i = 0; i < fields.length; i++) {
+			int length = payload.getInt();
+			fields[i] = new String(payload.array(), payload.position(), length, StandardCharsets.UTF_8);
+			payload.position(payload.position() + length);
+		}
+		return new Record(seq, time, type, fields);
+	}
+
+	// ---------------------------------- CLASSI DI APPOGGIO ---------------------------------- //
+
+	/**
+	 * record recuperato dal journal
+	 */
+	public static class Record {
+		private final long seq;
+		private final long time;
+		private final byte type;
+		private final String[] fields;
+
+		private Record(long seq, long time, byte type, String[] fields) {
+			this.seq = seq;
+			this.time = time;
+			this.type = type;
+			this.fields = fields;
+		}
+
+		/**
+		 * @return numero di sequenza del record, crescente nell'ordine di scrittura
+		 */
+		public long getSeq() {
+			return this.seq;
+		}
+
+		/**
+		 * @return istante della modifica in millisecondi
+		 */
+		public long getTime() {
+			return this.time;
+		}
+
+		/**
+		 * @return tipo della modifica
+		 */
+		public byte getType() {
+			return this.type;
+		}
+
+		/**
+		 * @param index: indice del campo
+		 * @return il campo in posizione index
+		 */
+		public String getField(int index) {
+			return this.fields[index];
+		}
+
+		/**
+		 * @return numero di campi del record
+		 */
+		public int getFieldsNumber() {
+			return this.fields.length;
+		}
+	}
+}
@@ -0,0 +1,136 @@
+package progetto_2020_2021;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * JsonCodec salva lo stato in file json leggibili, è il formato di default della cartella di recovery. Reader e writer
+ * di Jackson sono immutabili: vengono costruiti una sola volta per tipo e condivisi tra i thread
+ *
+ * @author Antonio Guzzi
+ */
+public class JsonCodec implements StorageCodec {
+
+	private static final String EXTENSION = ".json";
+
+	private final ObjectMapper mapper;
+	private final ObjectWriter usersWriter;
+	private final ObjectWriter userWriter;
+	private final ObjectReader userReader;
+	private final ObjectWriter membersWriter;
+	private final ObjectWriter workflowWriter;
+	private final ObjectReader workflowReader;
+	private final ObjectWriter cardWriter;
+	private final ObjectReader cardReader;
+
+	// ---------------------------------- METODO COSTRUTTORE ---------------------------------- //
+
+	public JsonCodec() {
+		this.mapper = new ObjectMapper();
+		this.usersWriter = this.mapper.writerFor(new TypeReference<Collection<User>>() {});
+		this.userWriter = this.mapper.writerFor(User.class);
+		this.userReader = this.mapper.readerFor(User.class);
+		this.membersWriter = this.mapper.writerFor(new TypeReference<List<String>>() {});
+		this.workflowWriter = this.mapper.writerFor(String.class);
+		this.workflowReader = this.mapper.readerFor(String.class);
+		this.cardWriter = this.mapper.writerFor(Card.class);
+		this.cardReader = this.mapper.readerFor(Card.class);
+	}
+
+	// ---------------------------------- METODI IMPLEMENTATI DALL'INTERFACCIA ---------------------------------- //
+
+	@Override
+	public String getExtension() {
+		return EXTENSION;
+	}
+
+	@Override
+	public byte[] encodeUsers(Collection<User> users) throws IOException {
+		return this.usersWriter.writeValueAsBytes(users);
+	}
+
+	@Override
+	public byte[] encodeUser(User user) throws IOException {
+		//ogni utente registrato dopo la compattazione segue l'array come oggetto json a sé stante, su una nuova riga
+		byte[] record = this.userWriter.writeValueAsBytes(user);
+		byte[] line = new byte[record.length + 1];
+		line[0] = '\n';
+		System.arraycopy(record, 0, line, 1, record.length);
+		return line;
+	}
+
+	@Override
+	public long decodeUsers(InputStream in, Consumer<User> consumer) throws IOException {
+		//il parser legge il file a blocchi, ogni utente viene decodificato appena letto il suo oggetto
+		long valid = 0;
+		try (JsonParser parser = this.mapper.getFactory().createParser(in)) {
+			if(parser.nextToken() != JsonToken.START_ARRAY) throw new IOException("il file non contiene un array di utenti");
+			JsonToken token;
+			while((token = parser.nextToken()) == JsonToken.START_OBJECT) {
+				//gli utenti letti dal file risultano Offline
+				consumer.accept(this.userReader.readValue(parser));
+			}
+			if(token != JsonToken.END_ARRAY) throw new IOException("il file contiene un utente non valido");
+			valid = parser.getCurrentLocation().getByteOffset();
+
+			//utenti accodati dopo la compattazione
+			try {
+				while((token = parser.nextToken()) == JsonToken.START_OBJECT) {
+					consumer.accept(this.userReader.readValue(parser));
+					valid = parser.getCurrentLocation().getByteOffset();
+				}
+			}catch (JsonProcessingException e) {return valid;}
+			if(token != null) throw new IOException("il file contiene un utente non valido");
+		}
+		return valid;
+	}
+
+	@Override
+	public byte[] encodeMembers(List<String> members) throws IOException {
+		return this.membersWriter.writeValueAsBytes(members);
+	}
+
+	@Override
+	public ArrayList<String> decodeMembers(InputStream in) throws IOException {
+		ArrayList<String> members = new ArrayList<String>();
+		try (JsonParser parser = this.mapper.getFactory().createParser(in)) {
+			if(parser.nextToken() != JsonToken.START_ARRAY) throw new IOException("il file non contiene un array di membri");
+			JsonToken token;
+			while((token = parser.nextToken()) == JsonToken.VALUE_STRING) members.add(parser.getText());
+			if(token != JsonToken.END_ARRAY) throw new IOException("il file contiene un membro non valido");
+		}
+		return members;
+	}
+
+	@Override
+	public byte[] encodeWorkflow(String spec) throws IOException {
+		return this.workflowWriter.writeValueAsBytes(spec);
+	}
+
+	@Override
+	public String decodeWorkflow(byte[] content) throws IOException {
+		return this.workflowReader.readValue(content);
+	}
+
+	@Override
+	public byte[] encodeCard(Card card) throws IOException {
+		return this.cardWriter.writeValueAsBytes(card);
+	}
+
+	@Override
+	public Card decodeCard(byte[] content) throws IOException {
+		return this.cardReader.readValue(content);
+	}
+}
@@ -17,13 +17,36 @@ public class MainClassServer {
 	//porta per la connessione UDP per la chat
 	private static final int PORT_DEFAULT_UDP = 5002;
 	
+	//numero di reactor tra cui suddividere le connessioni, di default uno per ogni core
+	private static final int REACTORS_DEFAULT = Runtime.getRuntime().availableProcessors();
+	
+	//numero di worker che eseguono le richieste, di default due per ogni core dato che le richieste possono bloccarsi su disco
+	private static final int WORKERS_DEFAULT = 2 * Runtime.getRuntime().availableProcessors();
+	
+	//politica con cui le modifiche vengono forzate su disco, di default raccolte da più richieste in un'unica sincronizzazione
+	private static final DurabilityPolicy DURABILITY_DEFAULT = DurabilityPolicy.GROUP;
+	
+	//formato dei file della cartella di recovery
+	private static final StorageFormat STORAGE_DEFAULT = StorageFormat.JSON;
+	
 	public static void main(String[] args){
 		int port1 = PORT_DEFAULT_RMI;
 		int port2 = PORT_DEFAULT_TCP;
 		int port3 = PORT_DEFAULT_UDP;
+		int reactors = REACTORS_DEFAULT;
+		int workers = WORKERS_DEFAULT;
+		DurabilityPolicy durability = DURABILITY_DEFAULT;
+		StorageFormat storage = STORAGE_DEFAULT;
+		
+		//il numero di reactor e di worker possono essere specificati come primo e secondo argomento
+		if(args.length > 0) reactors = Integer.parseInt(args[0]);
+		if(args.length > 1) workers = Integer.parseInt(args[1]);
+		//la politica di sincronizzazione su disco (SYNC, GROUP o ASYNC) come terzo argomento
+		if(args.length > 2) durability = DurabilityPolicy.valueOf(args[2].toUpperCase());
+		//il formato della cartella di recovery (JSON o BINARY) come quarto argomento
+		if(args.length > 3) storage = StorageFormat.valueOf(args[3].toUpperCase());
 		
-		Server serverWorth = new Server(port1,port2, port3);
-		serverWorth.registerUser();
+		Server serverWorth = new Server(port1,port2, port3, reactors, workers, durability, storage);
 		serverWorth.start();
 	}
 }
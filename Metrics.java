@@ -0,0 +1,119 @@
+package progetto_2020_2021;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics raccoglie le statistiche del server WORTH: per ogni metrica vengono mantenuti numero di campioni, somma e massimo.
+ * Le statistiche possono essere aggiornate contemporaneamente da tutti i thread del server
+ *
+ * @author Antonio Guzzi
+ */
+public final class Metrics {
+
+	private static final ConcurrentHashMap<String, Stat> STATS = new ConcurrentHashMap<String, Stat>();
+
+	//permette di conoscere i byte allocati dal thread corrente, se la JVM lo supporta
+	private static final com.sun.management.ThreadMXBean THREADS = threadBean();
+
+	private Metrics() {
+
+	}
+
+	// ---------------------------------- METODI DI APPOGGIO ---------------------------------- //
+
+	/**
+	 * permette di registrare un campione per una metrica
+	 *
+	 * @param name: nome della metrica
+	 * @param value: valore del campione
+	 */
+	public static void record(String name, long value) {
+		record(name, value, 1);
+	}
+
+	/**
+	 * permette di registrare più campioni di una metrica di cui è nota solo la somma, come massimo viene
+	 * considerato il valore medio dei campioni
+	 *
+	 * @param name: nome della metrica
+	 * @param sum: somma dei valori dei campioni
+	 * @param samples: numero di campioni, se non positivo non viene registrato nulla
+	 */
+	public static void record(String name, long sum, int samples) {
+		if(samples <= 0) return;
+		Stat stat = STATS.get(name);
+		if(stat == null) stat = STATS.computeIfAbsent(name, k -> new Stat());
+		stat.count.add(samples);
+		stat.sum.add(sum);
+		stat.max.accumulate(sum / samples);
+	}
+
+	/**
+	 * @return byte allocati fino ad ora dal thread corrente, -1 se la JVM non permette di misurarli
+	 */
+	public static long allocatedBytes() {
+		if(THREADS == null) return -1;
+		return THREADS.getCurrentThreadAllocatedBytes();
+	}
+
+	/**
+	 * @return le statistiche raccolte sotto forma di stringa, una metrica per riga
+	 */
+	public static String report() {
+		StringBuilder str = new StringBuilder();
+		for(Map.Entry<String, Stat> entry : new TreeMap<String, Stat>(STATS).entrySet()) {
+			long count = entry.getValue().count.sum();
+			long sum = entry.getValue().sum.sum();
+			str.append(entry.getKey() + ": campioni " + count + ", totale " + sum + ", media " + (count == 0 ? 0 : sum / count) + ", max " + entry.getValue().max.get() + "\n");
+		}
+		return str.toString().trim();
+	}
+
+	/**
+	 * permette di avviare un thread che stampa periodicamente le statistiche
+	 *
+	 * @param periodMillis: intervallo tra due stampe
+	 */
+	public static void startReporter(long periodMillis) {
+		Thread reporter = new Thread(() -> {
+			while(true) {
+				try {
+					Thread.sleep(periodMillis);
+				}catch (InterruptedException e) {return;}
+				if(!STATS.isEmpty()) System.out.println("Server WORTH: statistiche\n" + report());
+			}
+		}, "metrics-reporter");
+		reporter.setDaemon(true);
+		reporter.start();
+	}
+
+	/**
+	 * @return il ThreadMXBean che permette di misurare le allocazioni, null se non disponibile
+	 */
+	private static com.sun.management.ThreadMXBean threadBean() {
+		try {
+			com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+			if(!bean.isThreadAllocatedMemorySupported()) return null;
+			bean.setThreadAllocatedMemoryEnabled(true);
+			return bean;
+		}catch (ClassCastException | UnsupportedOperationException e) {
+			return null;
+		}
+	}
+
+	// ---------------------------------- CLASSI DI APPOGGIO ---------------------------------- //
+
+	/**
+	 * campioni raccolti per una metrica
+	 */
+	private static class Stat {
+		private final LongAdder count = new LongAdder();
+		private final LongAdder sum = new LongAdder();
+		private final LongAccumulator max = new LongAccumulator(Long::max, Long.MIN_VALUE);
+	}
+}
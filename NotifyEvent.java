@@ -2,41 +2,116 @@ package progetto_2020_2021;
 
 import java.rmi.*;
 import java.rmi.server.*;
-import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * NotifyEvent è implementata grazie all'interfaccia NotifyEventInterface e permette la notifica di determinati eventi al client
- * aggiornando la struttura dati che esso mantiene 
- * 
+ * aggiornando la struttura dati che esso mantiene. Il server invia solo le variazioni di stato degli utenti, numerate
+ * con versioni consecutive: se manca una versione lo stato completo viene richiesto al server da un thread separato,
+ * e le variazioni ricevute nel frattempo vengono applicate dopo di esso
+ *
  * @author Antonio Guzzi
  */
 
 public class NotifyEvent extends RemoteObject implements NotifyEventInterface{
-	
+
 	private static final long serialVersionUID = 7794944609520090159L;
-	HashMap<String, String> map;
-	
+	private final ConcurrentHashMap<String, String> map; //coppie user - state, letta dal thread del client
+	private final EventManagerInterface server; //per richiedere lo stato completo degli utenti
+	private long version; //versione dello stato degli utenti contenuto in map
+	private boolean resyncing; //true se è in corso la richiesta dello stato completo
+	private TreeMap<Long, String> pending; //variazioni ricevute durante la richiesta dello stato completo
+
 	// ---------------------------------- METODO COSTRUTTORE ---------------------------------- //
-	
+
 	/**
 	 * @param map: struttura dati del client che necessita di essere aggiornata
+	 * @param version: versione dello stato degli utenti contenuto in map
+	 * @param server: event manager del server, per richiedere lo stato completo degli utenti
 	 * @throws RemoteException
 	 */
-	public NotifyEvent(HashMap<String, String> map) throws RemoteException{
+	public NotifyEvent(ConcurrentHashMap<String, String> map, long version, EventManagerInterface server) throws RemoteException{
 		super();
 		if(map == null) throw new IllegalArgumentException("struttura dati 'map' null");
+		if(server == null) throw new IllegalArgumentException("server null");
 		this.map = map;
+		this.version = version;
+		this.server = server;
+		this.resyncing = false;
+		this.pending = new TreeMap<Long, String>();
 	}
-	
+
 	// ---------------------------------- METODI IMPLEMENTATI DALL'INTERFACCIA ---------------------------------- //
 	@Override
-	public void notifyEvent(String userMap) throws RemoteException {
-		//System.out.println(userMap);
-		String[] users = userMap.split(" ");
-   	 	for(String user: users) {
-   	 		String[] data = user.split(";");
-   	 		this.map.put(data[0], data[1]);
-   	 	}
-   	 	return;
+	public synchronized void notifyEvent(long version, String changes) throws RemoteException {
+		//variazione già contenuta nello stato
+		if(version <= this.version) return;
+
+		if(this.resyncing) {
+			this.pending.put(version, changes);
+			return;
+		}
+		//manca almeno una variazione: lo stato completo viene richiesto fuori dalla callback, che il server sta eseguendo
+		if(version != this.version + 1) {
+			this.resyncing = true;
+			this.pending.put(version, changes);
+			Thread resync = new Thread(this::resync, "presence-resync");
+			resync.setDaemon(true);
+			resync.start();
+			return;
+		}
+		this.apply(changes);
+		this.version = version;
+	}
+
+	@Override
+	public synchronized void notifyEvent(String userMap) throws RemoteException {
+		//usato dal server solo con i client precedenti alle notifiche versionate, lo stato viene comunque aggiornato
+		this.apply(userMap);
+	}
+
+	// ---------------------------------- METODI DI APPOGGIO ---------------------------------- //
+
+	/**
+	 * permette di richiedere al server lo stato completo degli utenti e di applicarlo, insieme alle variazioni
+	 * successive ricevute nel frattempo
+	 */
+	private void resync() {
+		String presence = null;
+		try {
+			presence = this.server.getPresence();
+		}catch (RemoteException e) {e.printStackTrace();}
+
+		synchronized(this) {
+			if(presence != null) {
+				String[] lines = presence.split("\n", 2);
+				long snapshotVersion = Long.parseLong(lines[0].trim());
+				if(lines.length > 1) this.apply(lines[1]);
+				if(snapshotVersion > this.version) this.version = snapshotVersion;
+			}
+			//le variazioni consecutive allo stato vengono applicate, le altre alla prossima richiesta
+			for(Map.Entry<Long, String> entry : this.pending.entrySet()) {
+				if(entry.getKey() <= this.version) continue;
+				if(entry.getKey() != this.version + 1) break;
+				this.apply(entry.getValue());
+				this.version = entry.getKey();
+			}
+			this.pending = new TreeMap<Long, String>();
+			this.resyncing = false;
+		}
+	}
+
+	/**
+	 * permette di applicare alla struttura dati del client i nuovi stati degli utenti
+	 *
+	 * @param changes: coppie nome;stato separate da spazi
+	 */
+	private void apply(String changes) {
+		for(String user : changes.trim().split(" ")) {
+			String[] data = user.split(";");
+			if(data.length == 2) this.map.put(data[0], data[1]);
+		}
 	}
 }
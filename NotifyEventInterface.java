@@ -5,9 +5,22 @@ import java.rmi.*;
 public interface NotifyEventInterface extends Remote{
 	
 	/**
-	 * permette l'aggiornamento della struttura dati del client utilizzanto le informazioni passate dal server
+	 * permette l'aggiornamento della struttura dati del client con le variazioni di stato degli utenti. Ogni notifica
+	 * ha un numero di versione successivo di uno a quello della precedente: se il client riceve una versione non
+	 * consecutiva ha perso delle notifiche e deve richiedere lo stato completo con EventManagerInterface.getPresence
 	 * 
-	 * @param userMap: struttura dati del client 
+	 * @param version: versione dello stato degli utenti dopo le variazioni
+	 * @param changes: nuovi stati degli utenti, coppie nome;stato separate da spazi
+	 * @throws RemoteException
+	 */
+	public void notifyEvent(long version, String changes) throws RemoteException;
+	
+	/**
+	 * permette l'aggiornamento della struttura dati del client utilizzanto le informazioni passate dal server, senza
+	 * versione: è l'unico metodo dei client precedenti alle notifiche versionate, a cui il server invia le variazioni
+	 * con questo metodo
+	 * 
+	 * @param userMap: nuovi stati degli utenti, coppie nome;stato separate da spazi
 	 * @throws RemoteException
 	 */
 	public void notifyEvent(String userMap) throws RemoteException;
@@ -7,18 +7,18 @@ import java.net.InetAddress;
 import java.util.*;
 
 /**
- * Project è la classe che modella un progetto
+ * Project è la classe che modella un progetto, i metodi che accedono alle liste di carte e ai membri sono sincronizzati
+ * dato che il progetto può essere acceduto contemporaneamente da più reactor del server
  * 
  * @author Antonio Guzzi
  */
 public class Project {
 	
 	private String projectName;
-	private ArrayList<Card> TODO;
-	private ArrayList<Card> INPROGRESS;
-	private ArrayList<Card> TOBEREVISED;
-	private ArrayList<Card> DONE;
-	private ArrayList<String> pojectUsers;
+	private HashMap<String, Card> cards; //indice delle carte del progetto per nome
+	private Workflow workflow; //liste del progetto e spostamenti consentiti
+	private ArrayList<LinkedHashMap<String, Card>> lists; //carte di ogni lista del workflow, in ordine di inserimento
+	private LinkedHashSet<String> projectUsers; //nomi dei membri in ordine di aggiunta
 	private String chatIP;
 	private int port;
 	private DatagramSocket datagramSocket;
@@ -32,11 +32,9 @@ public class Project {
 	public Project (String projectName) throws IllegalArgumentException{
 		if(projectName == null) throw new IllegalArgumentException("projectName null");
 		this.projectName = projectName;
-		this.TODO = new ArrayList<Card>();
-		this.DONE = new ArrayList<Card>();
-		this.INPROGRESS = new ArrayList<Card>();
-		this.TOBEREVISED = new ArrayList<Card>();
-		this.pojectUsers = new ArrayList<String>();
+		this.cards = new HashMap<String, Card>();
+		this.setWorkflow(Workflow.DEFAULT);
+		this.projectUsers = new LinkedHashSet<String>();
 		
 		try{
             this.datagramSocket = new DatagramSocket();
@@ -69,29 +67,35 @@ public class Project {
     /**
      * @return i membri associati al progetto
      */
-    public ArrayList<String> getMembers() {
-		return this.pojectUsers;
+    public synchronized ArrayList<String> getMembers() {
+		return new ArrayList<String>(this.projectUsers);
 	}
 	
     /**
      * ritorna la lista di carte specificata da cardListName
      * 
      * @param cardListName: nome della lista 
-     * @return lista di carte
+     * @return vista non modificabile delle carte della lista, null se la lista non esiste
      */
-    public ArrayList<Card> getList(String cardListName){
-		switch(cardListName) {
-		case "TODO":
-			return this.TODO;
-		case "INPROGRESS":
-			return this.INPROGRESS;
-		case "TOBEREVISED":
-			return this.TOBEREVISED;
-		case "DONE":
-			return this.DONE;
-		}
-		return null;
+    public synchronized Collection<Card> getList(String cardListName){
+    	int column = this.workflow.indexOf(cardListName);
+    	if(column < 0) return null;
+		return Collections.unmodifiableCollection(new ArrayList<Card>(this.lists.get(column).values()));
 	}
+    
+    /**
+     * @return copia delle carte del progetto
+     */
+    public synchronized ArrayList<Card> getCards() {
+    	return new ArrayList<Card>(this.cards.values());
+    }
+    
+    /**
+     * @return workflow del progetto
+     */
+    public synchronized Workflow getWorkflow() {
+    	return this.workflow;
+    }
 	
     // ---------------------------------- METODI SET ---------------------------------- //
     
@@ -116,10 +120,25 @@ public class Project {
     /**
      * permette di settare la lista di utenti membri del progetto
      * 
-     * @param projectUsers
+     * @param projectUsers: nomi dei membri del progetto
      */
-	public void setMembers(ArrayList<String> projectUsers) {
-		this.pojectUsers = projectUsers;
+	public synchronized void setMembers(Collection<String> projectUsers) {
+		this.projectUsers = new LinkedHashSet<String>(projectUsers);
+	}
+	
+	/**
+	 * permette di settare il workflow del progetto, può essere cambiato solo finché il progetto non ha carte
+	 * 
+	 * @param workflow: workflow da associare al progetto
+	 * @throws IllegalArgumentException se il workflow è nullo
+	 * @throws IllegalStateException se il progetto contiene già delle carte
+	 */
+	public synchronized void setWorkflow(Workflow workflow) throws IllegalArgumentException, IllegalStateException {
+		if(workflow == null) throw new IllegalArgumentException("workflow null");
+		if(!this.cards.isEmpty()) throw new IllegalStateException("il progetto " + this.projectName + " contiene già delle carte");
+		this.workflow = workflow;
+		this.lists = new ArrayList<LinkedHashMap<String, Card>>(workflow.size());
+		for(int i = 0; i < workflow.size(); i++) this.lists.add(new LinkedHashMap<String, Card>());
 	}
 	
 	// ---------------------------------- METODI DI APPOGGIO ---------------------------------- //
@@ -130,12 +149,18 @@ public class Project {
 	 * @param member: nuovo membro da aggiungere
 	 * @return true se l'aggiunta va a buon fine, false altrimenti
 	 */
-	public boolean addMember(User member) {
-		for(String tmp : this.pojectUsers) {
-			if(tmp.equals(member.getNickName())) return false;
-		}
-		this.pojectUsers.add(member.getNickName());
-		return true;
+	public synchronized boolean addMember(User member) {
+		return this.projectUsers.add(member.getNickName());
+	}
+	
+	/**
+	 * permette di verificare se un utente è membro del progetto, la verifica non richiede di scorrere i membri
+	 * 
+	 * @param user: utente da verificare
+	 * @return true se l'utente è membro del progetto, false altrimenti
+	 */
+	public synchronized boolean isMember(User user) {
+		return this.projectUsers.contains(user.getNickName());
 	}
 	
 	/**
@@ -143,9 +168,9 @@ public class Project {
 	 * 
 	 * @return stringa contenente la lista di membri del progetto
 	 */
-	public String showMembers() {
+	public synchronized String showMembers() {
 		StringBuilder str = new StringBuilder();
-		for(String tmp : this.pojectUsers) str.append(tmp + " ");
+		for(String tmp : this.projectUsers) str.append(tmp + " ");
 		return str.toString();
 	}
 	
@@ -154,24 +179,14 @@ public class Project {
 	 * 
 	 * @return stringa contenente le liste e le carte al loro intero
 	 */
-	public String showCards() {
+	public synchronized String showCards() {
 		
 		StringBuilder str = new StringBuilder();
-		str.append("TODO:\n");
-		for(Card projectCard : this.TODO) {
-			str.append(projectCard.getCardName() + "\n");
-		}
-		str.append("INPROGRESS:\n");
-		for(Card projectCard : this.INPROGRESS) {
-			str.append(projectCard.getCardName() + "\n");
-		}
-		str.append("TOBEREVISED:\n");
-		for(Card projectCard : this.TOBEREVISED) {
-			str.append(projectCard.getCardName() + "\n");
-		}
-		str.append("DONE:\n");
-		for(Card projectCard : this.DONE) {
-			str.append(projectCard.getCardName() + "\n");
+		for(int i = 0; i < this.workflow.size(); i++) {
+			str.append(this.workflow.getName(i) + ":\n");
+			for(String cardName : this.lists.get(i).keySet()) {
+				str.append(cardName + "\n");
+			}
 		}
 		return str.toString();
 	}
@@ -182,52 +197,8 @@ public class Project {
 	 * @param cardName: nome della carta che si desidera cercare
 	 * @return l'oggetto associato al nome della carta se quest'ultima viene trovata, null altrimenti
 	 */
-	public Card searchCardInProject(String cardName) {
-		
-		for(int i = 0; i < this.TODO.size(); i++) {
-			if(this.TODO.get(i).getCardName().equals(cardName)) return this.TODO.get(i);
-		}
-		for(int i = 0; i < this.INPROGRESS.size(); i++) {
-			if(this.INPROGRESS.get(i).getCardName().equals(cardName)) return this.INPROGRESS.get(i);
-		}
-		for(int i = 0; i < this.TOBEREVISED.size(); i++) {
-			if(this.TOBEREVISED.get(i).getCardName().equals(cardName)) return this.TOBEREVISED.get(i);
-		}
-		for(int i = 0; i < this.DONE.size(); i++) {
-			if(this.DONE.get(i).getCardName().equals(cardName)) return this.DONE.get(i);
-		}
-		return null;
-	}
-	
-	/**
-	 * permette la ricerca di una carta all'interno di una lista specifica
-	 * 
-	 * @param cardList: nome della lista nella quale si desidera cercare la carta
-	 * @param cardName: nome della carta da cercare
-	 * @return l'oggetto associato al nome della carta se quest'ultima viene trovata, null altrimenti
-	 */
-	public Card searchCard(ArrayList<Card> cardList, String cardName) {
-		for(int i = 0; i < cardList.size(); i++) {
-			if(cardList.get(i).getCardName().equals(cardName)) return cardList.get(i);
-		}
-		return null;
-	}
-	
-	/**
-	 * permette la rimozione di una carta all'interno di una lista specifica
-	 * 
-	 * @param cardList: nome della lista nella quale si vuole rimuovere la carta
-	 * @param cardName: nome della carta da rimuovere
-	 * @return true se la rimozione va a buon fine, false altrimenti
-	 */
-	public boolean removeCard(ArrayList<Card> cardList, String cardName) {
-		for(int i = 0; i < cardList.size(); i++) {
-			if(cardList.get(i).getCardName().equals(cardName)) {
-				cardList.remove(i);
-				return true;
-			}
-		}
-		return false;
+	public synchronized Card searchCardInProject(String cardName) {
+		return this.cards.get(cardName);
 	}
 	
 	/**
@@ -236,7 +207,7 @@ public class Project {
 	 * @param cardName: nome della carta della quale si vogliono conoscere le informazioni
 	 * @return informazioni della carta sottoforma di stringa
 	 */
-	public String showCard(String cardName) {
+	public synchronized String showCard(String cardName) {
 		
 		StringBuilder str = new StringBuilder();
 		Card projectCard = this.searchCardInProject(cardName);
@@ -249,92 +220,87 @@ public class Project {
 		
 		str.append("nome: " + projectCard.getCardName() + "\n");
 		str.append("descrizione: " + projectCard.getDescription() + "\n");
-		str.append("stato corrente: " + projectCard.getCurrentState());
+		str.append("stato corrente: " + this.workflow.getName(projectCard.getCurrentColumn()));
 		
 		return str.toString();
 	}
 	
 	/**
-	 * permette di muovere una carta da una lista sorgente ad una di destinazione
+	 * permette di muovere una carta da una lista sorgente ad una di destinazione, la legalità dello spostamento
+	 * viene verificata sulla matrice di transizione del workflow del progetto
 	 * 
 	 * @param cardName: nome della carta da spostare
 	 * @param src: lista sorgente
 	 * @param dst: lista destinazione
+	 * @param time: istante dello spostamento in millisecondi
 	 * @return la carta appena spostata se l'operazione di move ha avuto successo, null altrimenti
 	 */
-	public Card moveCard(String cardName, String src, String dst) {
+	public synchronized Card moveCard(String cardName, String src, String dst, long time) {
 		
-		if((src.equals("TODO") && dst.equals("INPROGRESS"))||(src.equals("INPROGRESS") && dst.equals("TOBEREVISED")) || (src.equals("INPROGRESS") && dst.equals("DONE")) || (src.equals("TOBEREVISED") && dst.equals("INPROGRESS"))) {
-			Card tmp = this.searchCard(this.getList(src), cardName);
-			
-			//se la carta è presente nella lista sorgente
-			if(tmp != null) {
-				
-				//rimuovo la carta dalla lista sorgente 
-				if(!this.removeCard(this.getList(src), tmp.getCardName())) return null;
-				
-				//aggiungo al suo storico la nuova lista in cui vado ad inserirla
-				tmp.addToHistory(dst);
-				ArrayList<Card> dest = this.getList(dst);
-				if(dest != null) {
-					dest.add(tmp);
-					return tmp;
-				}else return null;
-			}
-		}
-		return null;
+		int srcColumn = this.workflow.indexOf(src);
+		int dstColumn = this.workflow.indexOf(dst);
+		if(srcColumn < 0 || dstColumn < 0 || !this.workflow.canMove(srcColumn, dstColumn)) return null;
+		
+		//rimuovo la carta dalla lista sorgente, se è presente
+		Card tmp = this.lists.get(srcColumn).remove(cardName);
+		if(tmp == null) return null;
+		
+		//aggiungo al suo storico la nuova lista in cui vado ad inserirla
+		tmp.addToHistory(dstColumn, time);
+		this.lists.get(dstColumn).put(cardName, tmp);
+		return tmp;
 	}
 	
 	/**
 	 * permette l'aggiunta di una nuova carta al progetto
 	 * 
 	 * @param newCard: carta da aggiungere
+	 * @param time: istante dell'aggiunta in millisecondi
 	 * @return true se l'aggiunta va a buon fine, false altrimenti
 	 */
-	public boolean addCardToProject(Card newCard) {
-		if(this.searchCardInProject(newCard.getCardName()) == null) {
-			newCard.addToHistory("TODO");
-			this.TODO.add(newCard);
-			return true;
-		}
-		return false;
+	public synchronized boolean addCardToProject(Card newCard, long time) {
+		if(this.cards.putIfAbsent(newCard.getCardName(), newCard) != null) return false;
+		int initial = this.workflow.getInitial();
+		newCard.addToHistory(initial, time);
+		this.lists.get(initial).put(newCard.getCardName(), newCard);
+		return true;
 	}
 	
 	/**
-	 * permette l'aggiunta di una carta in una lista specifica
+	 * permette di reinserire nel progetto una carta recuperata da disco, nella lista in cui si trovava
 	 * 
-	 * @param cardListName: nome della lista nella quale si vuole aggiungere la carta
-	 * @param newCard: carta da aggiungere
-	 * @return true se l'aggiunta va a buon fine, false altrimenti
+	 * @param card: carta da reinserire
+	 * @return true se l'aggiunta va a buon fine, false se la storia della carta non è valida per il workflow
+	 * del progetto o la carta è già presente nel progetto
 	 */
-	public boolean addCardToList(String cardListName, Card newCard) {
-		switch(cardListName) {
-		case "TODO":
-			if(this.searchCard(this.TODO, newCard.getCardName()) == null) {
-				this.TODO.add(newCard);
-				return true;
-			}
-			break;
-		case "INPROGRESS":
-			if(this.searchCard(this.INPROGRESS, newCard.getCardName()) == null) {
-				this.INPROGRESS.add(newCard);
-				return true;
-			}
-			break;
-		case "TOBEREVISED":
-			if(this.searchCard(this.TOBEREVISED, newCard.getCardName()) == null) {
-				this.TOBEREVISED.add(newCard);
-				return true;
-			}
-			break;
-		case "DONE":
-			if(this.searchCard(this.DONE, newCard.getCardName()) == null) {
-				this.DONE.add(newCard);
-				return true;
-			}
-			break;
+	public synchronized boolean restoreCard(Card card) {
+		if(!card.resolveStory(this.workflow) || this.cards.putIfAbsent(card.getCardName(), card) != null) return false;
+		this.lists.get(card.getCurrentColumn()).put(card.getCardName(), card);
+		return true;
+	}
+	
+	/**
+	 * permette di visualizzare la storia di una carta del progetto
+	 * 
+	 * @param cardName: nome della carta
+	 * @return storia della carta sotto forma di stringa, null se la carta non è presente nel progetto
+	 */
+	public synchronized String getCardHistory(String cardName) {
+		Card card = this.cards.get(cardName);
+		return card == null ? null : card.getHistory(this.workflow);
+	}
+	
+	/**
+	 * permette di sapere se tutte le carte del progetto si trovano in una lista finale del workflow (DONE per il
+	 * workflow di default)
+	 * 
+	 * @return true se tutte le liste da cui è possibile spostare carte sono vuote, false altrimenti
+	 */
+	public synchronized boolean isCompleted() {
+		for(int i = 0; i < this.workflow.size(); i++) {
+			if(!this.workflow.isFinal(i) && !this.lists.get(i).isEmpty()) return false;
 		}
-		return false;
+		return true;
 	}
 	
 	/**
@@ -0,0 +1,132 @@
+package progetto_2020_2021;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * ProjectLoader è il task che ricostruisce un progetto dalla sua cartella di recovery, in parallelo con quelli
+ * degli altri progetti su un ForkJoinPool. Ogni file viene letto una sola volta, il file dei membri in streaming.
+ * Il task non accede allo stato del server: chi ha avviato il recupero inserisce il progetto tra quelli del server.
+ * Se un file non può essere letto il task fallisce con UncheckedIOException, il progetto non viene ricostruito
+ * senza una parte dei suoi dati
+ *
+ * @author Antonio Guzzi
+ */
+public class ProjectLoader extends RecursiveTask<Project> {
+
+	private static final long serialVersionUID = 2915377212646826174L;
+
+	private final File dir;
+	private final StorageCodec codec; //formato dei file, condiviso tra i task
+	private final LongAdder files; //file letti da tutti i task
+	private final LongAdder bytes; //byte letti da tutti i task
+
+	// ---------------------------------- METODO COSTRUTTORE ---------------------------------- //
+
+	/**
+	 * @param dir: cartella del progetto
+	 * @param codec: formato dei file della cartella
+	 * @param files: contatore dei file letti, condiviso tra i task
+	 * @param bytes: contatore dei byte letti, condiviso tra i task
+	 * @throws IllegalArgumentException se uno dei parametri è nullo
+	 */
+	public ProjectLoader(File dir, StorageCodec codec, LongAdder files, LongAdder bytes) throws IllegalArgumentException {
+		if(dir == null) throw new IllegalArgumentException("dir null");
+		if(codec == null) throw new IllegalArgumentException("codec null");
+		if(files == null) throw new IllegalArgumentException("files null");
+		if(bytes == null) throw new IllegalArgumentException("bytes null");
+		this.dir = dir;
+		this.codec = codec;
+		this.files = files;
+		this.bytes = bytes;
+	}
+
+	// ---------------------------------- METODI GET ---------------------------------- //
+
+	/**
+	 * @return cartella del progetto
+	 */
+	public File getDir() {
+		return this.dir;
+	}
+
+	// ---------------------------------- METODI DI APPOGGIO ---------------------------------- //
+
+	@Override
+	protected Project compute() {
+		Project project = new Project(this.dir.getName());
+		String extension = this.codec.getExtension();
+		String workflowName = StateWriter.WORKFLOW_FILE + extension;
+		String membersName = StateWriter.MEMBERS_FILE + extension;
+
+		//il workflow deve essere noto prima di inserire le carte nelle sue liste
+		File workflowFile = new File(this.dir, workflowName);
+		if(workflowFile.exists()) {
+			try {
+				project.setWorkflow(Workflow.parse(this.codec.decodeWorkflow(this.read(workflowFile))));
+			}catch (IOException | IllegalArgumentException e) {throw failure(workflowFile, e);}
+		}
+
+		File[] dirFiles = this.dir.listFiles();
+		if(dirFiles == null) throw new UncheckedIOException(new IOException("impossibile leggere la cartella " + this.dir.getPath()));
+		for(File file : dirFiles) {
+			//i file temporanei, scritture interrotte da un crash, e quelli in un altro formato vengono ignorati
+			if(file.getName().equals(workflowName) || !file.getName().endsWith(extension)) continue;
+			try {
+				if(file.getName().equals(membersName)) project.setMembers(this.readMembers(file));
+				else {
+					Card card = this.codec.decodeCard(this.read(file));
+					//la carta viene inserita nella lista in cui si trovava
+					if(!project.restoreCard(card)) throw new IOException("la carta non può essere inserita nel progetto " + project.getProjectName());
+				}
+			}catch (IOException | IllegalArgumentException e) {throw failure(file, e);}
+		}
+		return project;
+	}
+
+	/**
+	 * @param file: file che non è stato possibile leggere
+	 * @param e: causa dell'errore
+	 * @return eccezione con cui far fallire il task, riporta il file al chiamante
+	 */
+	private static UncheckedIOException failure(File file, Exception e) {
+		return new UncheckedIOException(new IOException("file " + file.getPath() + ": " + e.getMessage(), e));
+	}
+
+	/**
+	 * permette di leggere in streaming il file dei membri, senza caricarlo per intero in memoria
+	 *
+	 * @param file: file dei membri del progetto
+	 * @return nomi dei membri nell'ordine del file
+	 * @throws IOException se il file non può essere letto o non è nel formato atteso
+	 */
+	private ArrayList<String> readMembers(File file) throws IOException {
+		ArrayList<String> members = this.codec.decodeMembers(Channels.newInputStream(FileChannel.open(file.toPath(), StandardOpenOption.READ)));
+		this.files.increment();
+		this.bytes.add(file.length());
+		return members;
+	}
+
+	/**
+	 * permette di leggere per intero un file, aggiornando i contatori
+	 *
+	 * @param file: file da leggere
+	 * @return contenuto del file
+	 * @throws IOException
+	 */
+	private byte[] read(File file) throws IOException {
+		byte[] content = Files.readAllBytes(file.toPath());
+		this.files.increment();
+		this.bytes.add(content.length);
+		return content;
+	}
+}
@@ -0,0 +1,236 @@
+package progetto_2020_2021;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Protocol raccoglie le costanti e i metodi di codifica del protocollo binario tra client e server WORTH.
+ * Il client che vuole utilizzare il protocollo binario invia come primo byte della connessione HANDSHAKE_BINARY,
+ * altrimenti la connessione utilizza i comandi testuali.
+ * Ogni richiesta è preceduta dalla sua lunghezza ed è composta da: opcode (1 byte), numero di campi (1 byte)
+ * e, per ogni campo, lunghezza (4 byte) seguita dai byte UTF-8 del campo
+ *
+ * @author Antonio Guzzi
+ */
+public final class Protocol {
+
+	// ---------------------------------- HANDSHAKE ---------------------------------- //
+
+	//i 4 bit alti identificano l'handshake binario, i 4 bit bassi la versione del protocollo
+	public static final int HANDSHAKE_MASK = 0xF0;
+	public static final int VERSION_MASK = 0x0F;
+	public static final int HANDSHAKE_MAGIC = 0xB0;
+	public static final int VERSION = 1;
+	public static final byte HANDSHAKE_BINARY = (byte) (HANDSHAKE_MAGIC | VERSION);
+
+	// ---------------------------------- PIPELINING ---------------------------------- //
+
+	//numero massimo di richieste che un client può inviare senza aver ricevuto le risposte
+	public static final int PIPELINE_DEPTH = 32;
+
+	// ---------------------------------- OPCODE ---------------------------------- //
+
+	public static final byte LOGIN = 1;
+	public static final byte LOGOUT = 2;
+	public static final byte LIST_PROJECTS = 3;
+	public static final byte CREATE_PROJECT = 4;
+	public static final byte ADD_MEMBER = 5;
+	public static final byte SHOW_MEMBERS = 6;
+	public static final byte SHOW_CARDS = 7;
+	public static final byte SHOW_CARD = 8;
+	public static final byte ADD_CARD = 9;
+	public static final byte MOVE_CARD = 10;
+	public static final byte GET_CARD_HISTORY = 11;
+	public static final byte JOIN_CHAT = 12;
+	public static final byte CANCEL_PROJECT = 13;
+	public static final byte BATCH = 14;
+
+	// ---------------------------------- BATCH ---------------------------------- //
+
+	//le operazioni di un batch sono separate da un ritorno a capo, i loro argomenti da una tabulazione
+	public static final char BATCH_OPERATION_SEPARATOR = '\n';
+	public static final char BATCH_ARGUMENT_SEPARATOR = '\t';
+
+	//nome del comando testuale associato ad ogni opcode
+	private static final String[] NAMES = {null, "login", "logout", "list_projects", "create_project", "add_member", "show_members",
+			"show_cards", "show_card", "add_card", "move_card", "get_card_history", "join_chat", "cancel_project", "batch"};
+
+	//numero di campi richiesti da ogni opcode
+	private static final int[] FIELDS = {0, 2, 0, 0, 1, 2, 1, 1, 2, 3, 4, 2, 1, 1, 2};
+
+	//opcode associato ad ogni comando testuale
+	private static final HashMap<String, Byte> OPCODES = new HashMap<String, Byte>();
+	static {
+		for(byte i = 1; i < NAMES.length; i++) OPCODES.put(NAMES[i], i);
+	}
+
+	private Protocol() {
+
+	}
+
+	// ---------------------------------- METODI DI APPOGGIO ---------------------------------- //
+
+	/**
+	 * @param opcode: opcode dell'operazione
+	 * @return nome del comando testuale associato all'opcode, null se l'opcode non esiste
+	 */
+	public static String getName(byte opcode) {
+		if(opcode <= 0 || opcode >= NAMES.length) return null;
+		return NAMES[opcode];
+	}
+
+	/**
+	 * @param name: nome del comando testuale
+	 * @return opcode associato al comando, null se il comando non esiste
+	 */
+	public static Byte getOpcode(String name) {
+		return OPCODES.get(name);
+	}
+
+	/**
+	 * permette di verificare se il primo byte ricevuto su una connessione è un handshake binario
+	 *
+	 * @param firstByte: primo byte ricevuto sulla connessione
+	 * @return true se il byte è un handshake binario, false se appartiene ad una richiesta testuale
+	 */
+	public static boolean isHandshake(byte firstByte) {
+		return (firstByte & HANDSHAKE_MASK) == HANDSHAKE_MAGIC;
+	}
+
+	/**
+	 * permette di codificare una richiesta binaria, preceduta dalla sua lunghezza
+	 *
+	 * @param opcode: opcode dell'operazione
+	 * @param fields: campi della richiesta
+	 * @return buffer pronto per essere scritto sul canale
+	 */
+	public static ByteBuffer encodeRequest(byte opcode, String... fields) {
+		byte[][] encoded = new byte[fields.length][];
+		int length = 2;
+		for(int i = 0; i < fields.length; i++) {
+			encoded[i] = fields[i].getBytes(StandardCharsets.UTF_8);
+			length += Integer.BYTES + encoded[i].length;
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + length);
+		buffer.putInt(length);
+		buffer.put(opcode);
+		buffer.put((byte) fields.length);
+		for(byte[] field : encoded) {
+			buffer.putInt(field.length);
+			buffer.put(field);
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * permette di codificare le operazioni di un batch nel secondo campo della richiesta BATCH
+	 *
+	 * @param operations: operazioni, ognuna composta dal nome del comando seguito dai suoi argomenti
+	 * @return campo contenente le operazioni
+	 * @throws IllegalArgumentException se un argomento contiene uno dei separatori del batch
+	 */
+	public static String encodeBatch(List<String[]> operations) throws IllegalArgumentException {
+		StringBuilder str = new StringBuilder();
+		for(String[] operation : operations) {
+			if(str.length() > 0) str.append(BATCH_OPERATION_SEPARATOR);
+			for(int i = 0; i < operation.length; i++) {
+				if(operation[i].indexOf(BATCH_OPERATION_SEPARATOR) >= 0 || operation[i].indexOf(BATCH_ARGUMENT_SEPARATOR) >= 0)
+					throw new IllegalArgumentException("l'argomento " + operation[i] + " contiene un separatore del batch");
+				if(i > 0) str.append(BATCH_ARGUMENT_SEPARATOR);
+				str.append(operation[i]);
+			}
+		}
+		return str.toString();
+	}
+
+	/**
+	 * permette di decodificare le operazioni di un batch
+	 *
+	 * @param operations: secondo campo della richiesta BATCH
+	 * @return operazioni, ognuna composta dal nome del comando seguito dai suoi argomenti
+	 */
+	public static ArrayList<String[]> decodeBatch(String operations) {
+		ArrayList<String[]> decoded = new ArrayList<String[]>();
+		for(String operation : operations.split(String.valueOf(BATCH_OPERATION_SEPARATOR))) {
+			if(!operation.trim().isEmpty()) decoded.add(operation.split(String.valueOf(BATCH_ARGUMENT_SEPARATOR)));
+		}
+		return decoded;
+	}
+
+	/**
+	 * permette di decodificare una richiesta binaria
+	 *
+	 * @param message: buffer contenente la richiesta, senza la sua lunghezza
+	 * @param scratch: array di appoggio grande almeno quanto la richiesta, in cui vengono copiati i campi
+	 * @return la richiesta decodificata
+	 * @throws IllegalArgumentException se la richiesta non è ben formata
+	 */
+	public static Request decodeRequest(ByteBuffer message, byte[] scratch) throws IllegalArgumentException {
+		if(message.remaining() < 2) throw new IllegalArgumentException("richiesta troppo corta");
+		byte opcode = message.get();
+		String[] fields = new String[message.get() & 0xFF];
+		for(int i = 0; i < fields.length; i++) {
+			if(message.remaining() < Integer.BYTES) throw new IllegalArgumentException("campo " + i + " troncato");
+			int length = message.getInt();
+			if(length < 0 || length > message.remaining()) throw new IllegalArgumentException("campo " + i + " troncato");
+			//il buffer può essere diretto, i byte del campo vengono copiati nell'array di appoggio
+			message.get(scratch, 0, length);
+			fields[i] = new String(scratch, 0, length, StandardCharsets.UTF_8);
+		}
+		return check(opcode, fields);
+	}
+
+	/**
+	 * permette di decodificare un comando testuale, l'ultimo campo di add_card (la descrizione) e di batch (le operazioni)
+	 * può contenere spazi
+	 *
+	 * @param msg: comando testuale
+	 * @return la richiesta decodificata
+	 * @throws IllegalArgumentException se il comando non esiste o non ha abbastanza argomenti
+	 */
+	public static Request decodeTextRequest(String msg) throws IllegalArgumentException {
+		String[] parameters = msg.split(" ");
+		Byte opcode = OPCODES.get(parameters[0]);
+		if(opcode == null) throw new IllegalArgumentException("operazione " + parameters[0] + " non disponibile");
+
+		String[] fields;
+		if(opcode == BATCH) {
+			//le operazioni del batch occupano il resto del comando
+			parameters = msg.split(" ", 3);
+			fields = new String[parameters.length - 1];
+			System.arraycopy(parameters, 1, fields, 0, fields.length);
+		}
+		else if(opcode == ADD_CARD && parameters.length > 3) {
+			//la descrizione è composta da tutti i parametri successivi al nome della carta
+			StringBuilder description = new StringBuilder();
+			for(int i = 3; i < parameters.length; i++) {
+				description.append(parameters[i] + " ");
+			}
+			fields = new String[] {parameters[1], parameters[2], description.toString().trim()};
+		}
+		else {
+			fields = new String[parameters.length - 1];
+			System.arraycopy(parameters, 1, fields, 0, fields.length);
+		}
+		return check(opcode, fields);
+	}
+
+	/**
+	 * permette di verificare che l'opcode esista e che la richiesta abbia il numero di campi atteso
+	 *
+	 * @param opcode: opcode dell'operazione
+	 * @param fields: campi della richiesta
+	 * @return la richiesta
+	 * @throws IllegalArgumentException se l'opcode non esiste o i campi non sono sufficienti
+	 */
+	private static Request check(byte opcode, String[] fields) throws IllegalArgumentException {
+		if(getName(opcode) == null) throw new IllegalArgumentException("opcode " + opcode + " non disponibile");
+		if(fields.length < FIELDS[opcode]) throw new IllegalArgumentException(getName(opcode) + ": numero di argomenti errato");
+		return new Request(opcode, fields);
+	}
+}
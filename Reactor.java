@@ -0,0 +1,209 @@
+package progetto_2020_2021;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reactor modella un thread del server WORTH che, tramite un proprio selettore, gestisce un sottoinsieme delle connessioni dei client
+ *
+ * @author Antonio Guzzi
+ */
+public class Reactor implements Runnable {
+
+	private final int id;
+	private final Server server;
+	private final Selector selector;
+	private final ConcurrentLinkedQueue<SocketChannel> pendingChannels; //connessioni accettate dall'acceptor e non ancora registrate
+	private final ConcurrentLinkedQueue<Reply> pendingReplies; //risposte prodotte dai worker e non ancora consegnate
+	private final AtomicInteger connections; //numero di connessioni gestite dal reactor
+
+
+	// ---------------------------------- METODO COSTRUTTORE ---------------------------------- //
+
+	/**
+	 * @param id: identificatore del reactor
+	 * @param server: server WORTH che gestisce le richieste dei client
+	 * @throws IOException se non è possibile aprire il selettore
+	 * @throws IllegalArgumentException se il server è nullo
+	 */
+	public Reactor(int id, Server server) throws IOException, IllegalArgumentException {
+		if(server == null) throw new IllegalArgumentException("server null");
+		this.id = id;
+		this.server = server;
+		this.selector = Selector.open();
+		this.pendingChannels = new ConcurrentLinkedQueue<SocketChannel>();
+		this.pendingReplies = new ConcurrentLinkedQueue<Reply>();
+		this.connections = new AtomicInteger(0);
+	}
+
+	// ---------------------------------- METODI GET ---------------------------------- //
+
+	/**
+	 * @return identificatore del reactor
+	 */
+	public int getId() {
+		return this.id;
+	}
+
+	/**
+	 * @return numero di connessioni attualmente gestite dal reactor
+	 */
+	public int getLoad() {
+		return this.connections.get();
+	}
+
+	// ---------------------------------- METODO RUN ---------------------------------- //
+
+	@Override
+	public void run() {
+		while(true) {
+			try {
+				this.selector.select();
+
+				//registro sul selettore le connessioni assegnate dall'acceptor e le risposte prodotte dai worker
+				this.registerPendingChannels();
+				this.registerPendingReplies();
+
+				//insieme delle chiavi associate a dei canali pronti
+				Set<SelectionKey> selectedKeys = this.selector.selectedKeys();
+				Iterator<SelectionKey> iter = selectedKeys.iterator();
+				while(iter.hasNext()) {
+					SelectionKey key = iter.next();
+					iter.remove();
+					//la connessione può essere stata chiusa dopo la select, ad esempio se la consegna di una risposta è fallita
+					if(!key.isValid()) continue;
+
+					//i byte allocati gestendo la chiave vengono attribuiti alla richiesta corrente della connessione
+					Connection connection = (Connection) key.attachment();
+					long allocated = Metrics.allocatedBytes();
+
+					// utilizzo la try-catch per gestire la terminazione improvvisa del client
+					try {
+						// ------- READABLE ------ //
+						if(key.isValid() && key.isReadable()) {
+							this.server.readClientMessage(this, key);
+						}
+						// ------ WRITABLE ------ //
+						//con il pipelining il canale può essere contemporaneamente leggibile e scrivibile
+						if(key.isValid() && key.isWritable()) {
+							this.server.answer(this, key);
+						}
+					}catch (EOFException e) {
+						System.out.println("Server WORTH: " + e.getMessage());
+						this.closeConnection(key);
+					}catch (IOException e) {
+						e.printStackTrace();
+						this.closeConnection(key);
+					}finally {
+						if(allocated >= 0) connection.addAllocatedBytes(Metrics.allocatedBytes() - allocated);
+					}
+				}
+			}catch (IOException e) {e.printStackTrace();}
+		}
+	}
+
+	// ---------------------------------- METODI DI APPOGGIO ---------------------------------- //
+
+	/**
+	 * permette all'acceptor di assegnare una nuova connessione al reactor, la registrazione sul selettore
+	 * avviene nel thread del reactor
+	 *
+	 * @param clientChannel: SocketChannel del client in modalità non bloccante
+	 */
+	public void addChannel(SocketChannel clientChannel) {
+		this.connections.incrementAndGet();
+		this.pendingChannels.add(clientChannel);
+		//sveglio il selettore in modo che registri subito il nuovo canale
+		this.selector.wakeup();
+	}
+
+	/**
+	 * permette di registrare sul selettore i canali in attesa
+	 */
+	private void registerPendingChannels() {
+		SocketChannel clientChannel;
+		while((clientChannel = this.pendingChannels.poll()) != null) {
+			try {
+				this.server.registerRead(this.selector, clientChannel);
+			}catch (IOException e) {
+				e.printStackTrace();
+				this.connections.decrementAndGet();
+				try {
+					clientChannel.close();
+				}catch (IOException e1) {e1.printStackTrace();}
+			}
+		}
+	}
+
+	/**
+	 * permette ad un worker di consegnare al reactor la risposta di una richiesta, la chiave viene modificata
+	 * solo nel thread del reactor
+	 * 
+	 * @param key: chiave contenente il SocketChannel del client
+	 * @param answer: risposta da inviare al client
+	 */
+	public void post(SelectionKey key, String answer) {
+		this.pendingReplies.add(new Reply(key, answer));
+		this.selector.wakeup();
+	}
+	
+	/**
+	 * permette di consegnare alle connessioni le risposte in attesa
+	 */
+	private void registerPendingReplies() {
+		Reply reply;
+		while((reply = this.pendingReplies.poll()) != null) {
+			//la connessione potrebbe essere stata chiusa mentre il worker eseguiva la richiesta
+			if(!reply.key.isValid()) continue;
+			Connection connection = (Connection) reply.key.attachment();
+			long allocated = Metrics.allocatedBytes();
+			try {
+				this.server.deliver(this, reply.key, reply.answer);
+			}catch (IOException e) {
+				e.printStackTrace();
+				this.closeConnection(reply.key);
+			}finally {
+				if(allocated >= 0) connection.addAllocatedBytes(Metrics.allocatedBytes() - allocated);
+			}
+		}
+	}
+	
+	/**
+	 * permette di chiudere la connessione associata alla chiave
+	 *
+	 * @param key: chiave contenente il SocketChannel del client
+	 */
+	private void closeConnection(SelectionKey key) {
+		key.cancel();
+		Connection connection = (Connection) key.attachment();
+		//l'utente che non ha effettuato il logout risulta Offline, i buffer della connessione tornano al pool
+		this.server.closeSession(connection);
+		connection.release();
+		try {
+			key.channel().close();
+		}catch (IOException e) {e.printStackTrace();}
+		this.connections.decrementAndGet();
+	}
+	
+	// ---------------------------------- CLASSI DI APPOGGIO ---------------------------------- //
+	
+	/**
+	 * coppia chiave - risposta prodotta da un worker
+	 */
+	private static class Reply {
+		private final SelectionKey key;
+		private final String answer;
+		
+		private Reply(SelectionKey key, String answer) {
+			this.key = key;
+			this.answer = answer;
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package progetto_2020_2021;
+
+/**
+ * Request modella una richiesta decodificata inviata dal client, indipendentemente dal protocollo utilizzato
+ *
+ * @author Antonio Guzzi
+ */
+public class Request {
+
+	//opcode delle richieste che non è stato possibile decodificare, l'unico campo è il motivo dell'errore
+	private static final byte INVALID = 0;
+	private final byte opcode;
+	private final String[] fields;
+
+	// ---------------------------------- METODO COSTRUTTORE ---------------------------------- //
+
+	/**
+	 * @param opcode: opcode dell'operazione richiesta
+	 * @param fields: campi della richiesta
+	 * @throws IllegalArgumentException se i campi sono nulli
+	 */
+	public Request(byte opcode, String[] fields) throws IllegalArgumentException {
+		if(fields == null) throw new IllegalArgumentException("fields null");
+		this.opcode = opcode;
+		this.fields = fields;
+	}
+
+	/**
+	 * permette di creare una richiesta non valida, a cui il server risponde con un errore mantenendo l'ordine delle risposte
+	 *
+	 * @param error: motivo per cui la richiesta non è valida
+	 * @return la richiesta non valida
+	 */
+	public static Request invalid(String error) {
+		return new Request(INVALID, new String[] {error});
+	}
+
+	// ---------------------------------- METODI GET ---------------------------------- //
+
+	/**
+	 * @return opcode dell'operazione richiesta
+	 */
+	public byte getOpcode() {
+		return this.opcode;
+	}
+
+	/**
+	 * @return nome dell'operazione richiesta
+	 */
+	public String getName() {
+		return Protocol.getName(this.opcode);
+	}
+
+	/**
+	 * @param index: indice del campo
+	 * @return il campo della richiesta in posizione index
+	 */
+	public String getField(int index) {
+		return this.fields[index];
+	}
+
+	/**
+	 * @return numero di campi della richiesta
+	 */
+	public int getFieldsNumber() {
+		return this.fields.length;
+	}
+
+	/**
+	 * @return true se la richiesta non è stata decodificata correttamente, false altrimenti
+	 */
+	public boolean isInvalid() {
+		return this.opcode == INVALID;
+	}
+}
@@ -1,28 +1,35 @@
 package progetto_2020_2021;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.nio.file.Paths;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.StandardOpenOption;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Set;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.core.type.TypeReference;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Server è la classe che modella il server WORTH
@@ -32,14 +39,37 @@ import com.fasterxml.jackson.core.type.TypeReference;
 
 public class Server {
 	
-	private final static int BUFFER_DIMENSION = 1024;
+	private final static int POOL_BUFFER_DIMENSION = 8192;
+	private final static int POOL_SLAB_BUFFERS = 128;
+	private final static long METRICS_PERIOD = 60000;
+	//byte allocati dai reactor per leggere, decodificare, codificare e scrivere una richiesta
+	private final static String ALLOCATION_METRIC = "reactor.byteAllocatiPerRichiesta";
+	private final static int MAX_REQUEST_DIMENSION = 1024 * 1024;
+	private final static int WORKERS_QUEUE_DIMENSION = 1024;
+	//i file modificati vengono scritti al più una volta ogni STATE_WRITE_WINDOW, anche se modificati più volte
+	private final static long STATE_WRITE_WINDOW = 500;
+	//un checkpoint viene fatto almeno ogni CHECKPOINT_PERIOD se ci sono modifiche, prima se il journal supera CHECKPOINT_JOURNAL_DIMENSION
+	private final static long CHECKPOINT_PERIOD = 60 * 1000;
+	private final static long CHECKPOINT_JOURNAL_DIMENSION = 8 * 1024 * 1024;
+	//con DurabilityPolicy.GROUP attesa massima per raccogliere le modifiche di richieste concorrenti in un'unica sincronizzazione
+	private final static long GROUP_COMMIT_DELAY = 2;
+	//le variazioni di stato degli utenti avvenute in PRESENCE_WINDOW ms vengono notificate ai client insieme
+	private final static long PRESENCE_WINDOW = 100;
 	private static String MULTICAST_IP = "239.0.0.0";
 	private final int RMIPort;
 	private final int TCPport;
 	private final int UDPport;
-	private List<User> users;
-	private ArrayList<Project> projects;
+	private UserRegistry users;
+	private List<Project> projects;
 	private ArrayList<String> reusableAddresses;
+	private Reactor[] reactors;
+	private int nextReactor;
+	private ThreadPoolExecutor workers; //pool di thread che esegue le richieste dei client
+	private BufferPool bufferPool; //buffer diretti condivisi dalle connessioni di tutti i reactor
+	private File recoveryDir;
+	private Journal journal; //registro append-only delle modifiche, riapplicato al riavvio
+	private StateWriter stateWriter; //scrive in background i file dello stato modificati
+	private final StorageFormat storage; //formato dei file della cartella di recovery
 	EventManager eventManager;
 	
 	
@@ -51,15 +81,74 @@ public class Server {
 	 * @param port3: porta utilizzata per UDP
 	 */
 	public Server(int port1, int port2, int port3) {
+		this(port1, port2, port3, Runtime.getRuntime().availableProcessors(), 2 * Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * @param port1: porta utilizzata per RMI
+	 * @param port2: porta utilizzata per TCP
+	 * @param port3: porta utilizzata per UDP
+	 * @param reactorsNumber: numero di reactor, ognuno con il proprio selettore, tra cui vengono suddivise le connessioni
+	 * @param workersNumber: numero di worker che eseguono le richieste dei client
+	 * @throws IllegalArgumentException se il numero di reactor o di worker non è positivo
+	 */
+	public Server(int port1, int port2, int port3, int reactorsNumber, int workersNumber) throws IllegalArgumentException {
+		this(port1, port2, port3, reactorsNumber, workersNumber, DurabilityPolicy.GROUP);
+	}
+	
+	/**
+	 * @param port1: porta utilizzata per RMI
+	 * @param port2: porta utilizzata per TCP
+	 * @param port3: porta utilizzata per UDP
+	 * @param reactorsNumber: numero di reactor, ognuno con il proprio selettore, tra cui vengono suddivise le connessioni
+	 * @param workersNumber: numero di worker che eseguono le richieste dei client
+	 * @param durability: politica con cui le modifiche vengono forzate su disco prima di rispondere
+	 * @throws IllegalArgumentException se il numero di reactor o di worker non è positivo o la politica è nulla
+	 */
+	public Server(int port1, int port2, int port3, int reactorsNumber, int workersNumber, DurabilityPolicy durability) throws IllegalArgumentException {
+		this(port1, port2, port3, reactorsNumber, workersNumber, durability, StorageFormat.JSON);
+	}
+	
+	/**
+	 * @param port1: porta utilizzata per RMI
+	 * @param port2: porta utilizzata per TCP
+	 * @param port3: porta utilizzata per UDP
+	 * @param reactorsNumber: numero di reactor, ognuno con il proprio selettore, tra cui vengono suddivise le connessioni
+	 * @param workersNumber: numero di worker che eseguono le richieste dei client
+	 * @param durability: politica con cui le modifiche vengono forzate su disco prima di rispondere
+	 * @param storage: formato dei file della cartella di recovery
+	 * @throws IllegalArgumentException se il numero di reactor o di worker non è positivo, la politica o il formato sono nulli
+	 */
+	public Server(int port1, int port2, int port3, int reactorsNumber, int workersNumber, DurabilityPolicy durability, StorageFormat storage) throws IllegalArgumentException {
+		if(reactorsNumber <= 0) throw new IllegalArgumentException("reactorsNumber non positivo");
+		if(workersNumber <= 0) throw new IllegalArgumentException("workersNumber non positivo");
+		if(durability == null) throw new IllegalArgumentException("durability null");
+		if(storage == null) throw new IllegalArgumentException("storage null");
         this.RMIPort = port1;
         this.TCPport = port2;
         this.UDPport = port3;
-        this.users = Collections.synchronizedList(new ArrayList<User>());
-        this.projects = new ArrayList<Project>();
+        this.storage = storage;
+        this.users = new UserRegistry();
+        //le strutture dati condivise vengono accedute contemporaneamente da tutti i reactor
+        this.projects = Collections.synchronizedList(new ArrayList<Project>());
         this.reusableAddresses = new ArrayList<String>();
+        this.reactors = new Reactor[reactorsNumber];
+        this.nextReactor = 0;
+        this.bufferPool = new BufferPool(POOL_BUFFER_DIMENSION, POOL_SLAB_BUFFERS);
+        
+        //la coda dei worker è limitata: se è piena la richiesta viene rifiutata invece di accumularsi in memoria
+        AtomicInteger workerId = new AtomicInteger(0);
+        this.workers = new ThreadPoolExecutor(workersNumber, workersNumber, 0L, TimeUnit.MILLISECONDS,
+        		new ArrayBlockingQueue<Runnable>(WORKERS_QUEUE_DIMENSION), r -> new Thread(r, "worker-" + workerId.getAndIncrement()));
+        
+        //il journal viene aperto in scrittura solo dopo il recupero dello stato, all'avvio del server
+        this.journal = new Journal(new File("." + File.separator + "recoveryDir"), durability, GROUP_COMMIT_DELAY);
+        //i file dello stato vengono scritti da un thread dedicato, chi gestisce le richieste segnala solo cosa è cambiato
+        this.stateWriter = new StateWriter(new File("." + File.separator + "recoveryDir"), storage.getCodec(), this.journal, this.users, this.projects,
+        		STATE_WRITE_WINDOW, CHECKPOINT_PERIOD, CHECKPOINT_JOURNAL_DIMENSION);
        
         try {
-			eventManager = new EventManager(this.users);
+			eventManager = new EventManager(this.users, this.journal, this.stateWriter, PRESENCE_WINDOW);
 		} catch (RemoteException e) {e.printStackTrace();}
     }
 	
@@ -67,9 +156,10 @@ public class Server {
 	// ---------------------------------- METODI DI AVVIO DEL SERVER  ---------------------------------- //
 	
 	/**
-	 * permette la registrazione dell'utente tramite la registrazione dei metodi presenti in eventManager
+	 * permette la registrazione dell'utente tramite la registrazione dei metodi presenti in eventManager, va invocato
+	 * dopo il recupero dello stato: prima il journal non accetta nuovi record
 	 */
-	public void registerUser() {
+	private void registerUser() {
 		try {
 			
 			//il server esporta l'oggetto
@@ -91,190 +181,383 @@ public class Server {
 		
 		//creo la cartella di recovery del server
 		String path = "." + File.separator + "recoveryDir";
-		File recoveryDir = new File(path);
-		if(!recoveryDir.exists()) recoveryDir.mkdir();
+		this.recoveryDir = new File(path);
+		if(!this.recoveryDir.exists()) this.recoveryDir.mkdir();
+		
+		//lettura dei file della cartella di recovery: se un file non può essere letto il server non viene avviato, i dati
+		//mancanti verrebbero altrimenti cancellati dal primo checkpoint
+		try {
+			this.readRecoveryDir(this.recoveryDir);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.out.println("Server WORTH: impossibile leggere la cartella di recovery, il server non viene avviato");
+			return;
+		}
+		
+		//le modifiche successive ai file della cartella di recovery sono nel journal, vengono riapplicate nell'ordine in cui sono state eseguite
+		try {
+			int records = this.journal.recover(this::applyRecord);
+			System.out.println("Server WORTH: riapplicati " + records + " record del journal");
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
 		
-		//reading del file json
-		this.readerFromJson(recoveryDir);
+		//le modifiche riapplicate dal journal sono già state segnalate e vengono scritte nei file dal thread dello stato,
+		//i file letti all'avvio non vengono riscritti
+		Thread writer = new Thread(this.stateWriter, "state-writer");
+		writer.setDaemon(true);
+		writer.start();
+		
+		//le variazioni di stato degli utenti vengono accorpate e notificate ai client da un thread dedicato
+		this.eventManager.startPublisher();
+		
+		//i client possono registrarsi solo dopo il recupero dello stato
+		this.registerUser();
+		
+		//le statistiche del server vengono stampate periodicamente
+		Metrics.startReporter(METRICS_PERIOD);
+		
+		//avvio i reactor, ognuno dei quali gestisce con il proprio selettore le connessioni che gli vengono assegnate
+		for(int i = 0; i < this.reactors.length; i++) {
+			try {
+				this.reactors[i] = new Reactor(i, this);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return;
+			}
+			new Thread(this.reactors[i], "reactor-" + i).start();
+		}
 		
 		//creo un channel per la connessione TCP byte-oriented
 		try (ServerSocketChannel serverChannel = ServerSocketChannel.open();){
 			serverChannel.socket().bind(new InetSocketAddress(TCPport));
-			serverChannel.configureBlocking(false);
-		            
-			//creo e registro il selettore per accettare le connessioni da parte dei client
-			Selector sel = Selector.open();
-			serverChannel.register(sel, SelectionKey.OP_ACCEPT);
-			System.out.printf("Server WORTH: in attesa di connessioni sulla porta %d\n", TCPport);
+			System.out.printf("Server WORTH: in attesa di connessioni sulla porta %d con %d reactor\n", TCPport, this.reactors.length);
 			
+			//il thread principale fa da acceptor: accetta le connessioni e le assegna ai reactor
 	        while(true) {
-		            	
-            	//se non ci sono chiavi pronte salto un'iterazione
-		        if(sel.select() == 0) continue;
-		            	
-		        //insiemi delle chiavi associate a dei canali pronti
-		        Set<SelectionKey> selectedKeys = sel.selectedKeys();
-		            	
-		        // definisco un iteratore per l'insieme delle chiavi
-		        Iterator<SelectionKey> iter = selectedKeys.iterator();
-		        while(iter.hasNext()) {
-		        	SelectionKey key = iter.next();
-		        	iter.remove();
-		        
-		        	// utilizzo la try-catch per gestire la terminazione improvvisa del client
-		        	try {
-		        		// ------- ACCETTABLE ------ //
-		        		if(key.isAcceptable()) {
-		        			// accetto la connessione con il client e creao una socketchannel
-		        			ServerSocketChannel server = (ServerSocketChannel) key.channel();
-		        			SocketChannel clientChannel = server.accept();
-		        			clientChannel.configureBlocking(false);
-		        			System.out.println("Server WORTH: accettata nuova connessione dal client: " + clientChannel.getRemoteAddress());
-		        			registerRead(sel, clientChannel);
-		        		}
-		        		// ------- READABLE ------ //
-		        		else if(key.isReadable()) {
-		        			readClientMessage(sel, key, recoveryDir);
-		        		}
-		        		// ------ WRITABLE ------ //
-		        		else if(key.isWritable()) {
-		        			answer(sel,key);
-		        		}
-		        	}catch (IOException e) {
-		        		e.printStackTrace();
-		        		key.channel().close();
-		        		key.cancel();
-		        	}
-		        }
+	        	SocketChannel clientChannel = serverChannel.accept();
+	        	try {
+	        		clientChannel.configureBlocking(false);
+	        		Reactor reactor = this.selectReactor();
+	        		System.out.println("Server WORTH: accettata nuova connessione dal client: " + clientChannel.getRemoteAddress() + " assegnata al reactor " + reactor.getId());
+	        		reactor.addChannel(clientChannel);
+	        	}catch (IOException e) {
+	        		e.printStackTrace();
+	        		clientChannel.close();
+	        	}
 	        }
 		} catch (IOException e) {e.printStackTrace();}
 	}
+	
+	/**
+	 * permette di scegliere il reactor a cui assegnare una nuova connessione: viene scelto il reactor meno carico,
+	 * a parità di carico i reactor vengono scelti a turno (round-robin)
+	 * 
+	 * @return il reactor a cui assegnare la connessione
+	 */
+	private Reactor selectReactor() {
+		Reactor selected = null;
+		for(int i = 0; i < this.reactors.length; i++) {
+			Reactor tmp = this.reactors[(this.nextReactor + i) % this.reactors.length];
+			if(selected == null || tmp.getLoad() < selected.getLoad()) selected = tmp;
+		}
+		this.nextReactor = (selected.getId() + 1) % this.reactors.length;
+		return selected;
+	}
 
 	/**
-	 * permette di registrare il messaggio inviato dal client con interesse sull'operazione di read
+	 * permette di registrare il canale di un nuovo client con interesse sull'operazione di read, al canale viene
+	 * associato lo stato della connessione
 	 * 
 	 * @param sel: selettore
 	 * @param clientChannel: SocketChannel del client
 	 * @throws IOException
 	 */
-	private void registerRead(Selector sel, SocketChannel clientChannel) throws IOException{
+	void registerRead(Selector sel, SocketChannel clientChannel) throws IOException{
 		
-		ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
-        ByteBuffer message = ByteBuffer.allocate(BUFFER_DIMENSION);
-        ByteBuffer[] buffers = {length, message};
+		//i buffer della connessione vengono presi dal pool e riutilizzati per tutte le sue richieste
+		Connection connection = new Connection(this.bufferPool);
         
         //aggiungo il canale del client al selettore settando la preferenza sull'operazione di read
-        clientChannel.register(sel, SelectionKey.OP_READ, buffers);
+        try {
+        	clientChannel.register(sel, SelectionKey.OP_READ, connection);
+        }catch (IOException e) {
+        	connection.release();
+        	throw e;
+        }
         return;
 	}
 	
 	/**
-	 * permette di registrare il messaggio inviato dal client con interesse sull'operazione di write per la risposta, quest'ultima cambia
-	 * in base a ciò che il client ha inviato
+	 * permette di leggere i messaggi inviati dal client, le richieste complete vengono accodate ed eseguite
+	 * una alla volta dai worker
 	 * 
-	 * @param sel: selettore
+	 * @param reactor: reactor che gestisce la connessione del client
 	 * @param key: chiave contenente il SocketChannel del client
-	 * @param recoveryDir: directory per il backUp del server
 	 * @throws IOException
 	 */
-	private void readClientMessage(Selector sel, SelectionKey key, File recoveryDir) throws IOException{
+	void readClientMessage(Reactor reactor, SelectionKey key) throws IOException{
+		
+		SocketChannel clientChannel = (SocketChannel) key.channel();
+		 
+		//recupero lo stato della connessione
+		Connection connection = (Connection) key.attachment();
+		ByteBuffer input = connection.getInput();
+		
+		if(clientChannel.read(input) == -1) throw new EOFException("connessione chiusa dal client " + clientChannel.getRemoteAddress());
+		
+		//il primo byte della connessione stabilisce il protocollo utilizzato dal client
+		if(connection.getMode() == Connection.Mode.UNKNOWN) {
+			if(input.position() == 0) return;
+			
+			byte firstByte = input.get(0);
+			if(Protocol.isHandshake(firstByte)) {
+				if((firstByte & Protocol.VERSION_MASK) != Protocol.VERSION) throw new IOException("versione del protocollo non supportata: " + (firstByte & Protocol.VERSION_MASK));
+				connection.setMode(Connection.Mode.BINARY);
+				
+				//l'handshake non fa parte della richiesta, lo scarto
+				input.flip();
+				input.get();
+				connection.compactInput();
+			}
+			//altrimenti il byte appartiene alla lunghezza del primo comando testuale
+			else connection.setMode(Connection.Mode.TEXT);
+		}
+		
+		this.processInput(reactor, key);
+	}
+	
+	/**
+	 * permette di estrarre dal buffer di input della connessione tutte le richieste ricevute completamente, fino al
+	 * numero massimo di richieste in sospeso, e di avviare l'esecuzione della prossima richiesta
+	 * 
+	 * @param reactor: reactor che gestisce la connessione del client
+	 * @param key: chiave contenente il SocketChannel del client
+	 * @throws IOException se la lunghezza di una richiesta non è valida
+	 */
+	private void processInput(Reactor reactor, SelectionKey key) throws IOException {
+		
+		Connection connection = (Connection) key.attachment();
+		
+		//il client può inviare più richieste senza attendere le risposte
+		while(connection.canRead()) {
+			Request request = this.nextRequest(key);
+			if(request == null) break;
+			connection.addRequest(request);
+		}
+		
+		this.dispatch(reactor, key);
+		this.updateInterest(key);
+	}
+	
+	/**
+	 * permette di decodificare la prossima richiesta presente nel buffer di input, i byte consumati vengono scartati
+	 * 
+	 * @param key: chiave contenente il SocketChannel del client
+	 * @return la richiesta decodificata, null se non è ancora stata ricevuta completamente
+	 * @throws IOException se la lunghezza della richiesta non è valida
+	 */
+	private Request nextRequest(SelectionKey key) throws IOException {
 		
 		SocketChannel clientChannel = (SocketChannel) key.channel();
-		String usersMap;
+		Connection connection = (Connection) key.attachment();
+		ByteBuffer input = connection.getInput();
+		
+		if(input.position() < Integer.BYTES) return null;
+		int length = input.getInt(0);
+		if(length < 0 || length > MAX_REQUEST_DIMENSION) throw new IOException("dimensione della richiesta non valida: " + length);
+		int frameLength = Integer.BYTES + length;
 		 
-		//recupero l'attachment del messaggio
-		ByteBuffer[] buffers = (ByteBuffer[]) key.attachment();
-		clientChannel.read(buffers);
-		
-		if(!buffers[0].hasRemaining()) {
-			 buffers[0].flip();
-			 int length = buffers[0].getInt();
-			 if(buffers[1].position() == length) {
-				 buffers[1].flip();
-				 
-				 String msg = new String(buffers[1].array()).trim();
-				 String[] parameters = msg.split(" ");
-				 System.out.println("Server WORTH: ricevuta operazione " + parameters[0]);
-				 
-				 switch(parameters[0]) {
-				 case "login":
-					 boolean logged = this.login(parameters[1],parameters[2],clientChannel,sel, clientChannel.socket().getInetAddress(), clientChannel.socket().getPort());
-					 //notifica evento
-					 if(logged) {
-						 usersMap = this.usersToString();
-						 eventManager.update(usersMap);
-					 }
-					 break;
-				case "logout":
-					this.logout(clientChannel, sel, clientChannel.socket().getInetAddress(), clientChannel.socket().getPort());
-					//notifica evento
-					usersMap = this.usersToString();
-					eventManager.update(usersMap);
-					break;			
-				case "list_projects":
-					this.listProjects(clientChannel, sel, clientChannel.socket().getInetAddress(), clientChannel.socket().getPort());
-					break;				
-				case "create_project":
-					this.createProject(clientChannel, sel, clientChannel.socket().getInetAddress(), clientChannel.socket().getPort(), parameters[1]);
-					break;
-				case "join_chat":
-					this.joinChat(clientChannel, sel, parameters[1], clientChannel.socket().getInetAddress(), clientChannel.socket().getPort());
-					break;
-				case "add_member":
-					this.addMember(clientChannel, sel, parameters[1], parameters[2], clientChannel.socket().getInetAddress(), clientChannel.socket().getPort());
-					break;
-				case "show_members":
-					this.showMembers(clientChannel, sel, parameters[1], clientChannel.socket().getInetAddress(), clientChannel.socket().getPort());
-					break;		
-				case "show_cards":
-					this.showCards(clientChannel, sel, parameters[1], clientChannel.socket().getInetAddress(), clientChannel.socket().getPort());
-					break;	
-				case "show_card":
-					this.showCard(clientChannel, sel, parameters[1], parameters[2],clientChannel.socket().getInetAddress(), clientChannel.socket().getPort());
-					break;
-				case "add_card":
-					StringBuilder description = new StringBuilder();
-					for(int i = 3; i < parameters.length; i++) {
-						description.append(parameters[i] + " ");
+		//la richiesta non entra nel buffer del pool: lo ingrandisco mantenendo quanto già letto
+		if(frameLength > input.capacity()) {
+			connection.ensureInputCapacity(frameLength);
+			input = connection.getInput();
+			clientChannel.read(input);
+		}
+		if(input.position() < frameLength) return null;
+		
+		//decodifico la richiesta direttamente dal buffer di input e scarto i byte consumati
+		Request request;
+		int received = input.position();
+		input.flip();
+		input.position(Integer.BYTES);
+		input.limit(frameLength);
+		try {
+			byte[] scratch = connection.getScratch(length);
+			if(connection.getMode() == Connection.Mode.BINARY) request = Protocol.decodeRequest(input, scratch);
+			else {
+				input.get(scratch, 0, length);
+				request = Protocol.decodeTextRequest(new String(scratch, 0, length, StandardCharsets.UTF_8).trim());
+			}
+			System.out.println("Server WORTH: ricevuta operazione " + request.getName());
+		}catch (IllegalArgumentException e) {
+			//la richiesta non è ben formata, il client riceverà un errore al posto della risposta
+			request = Request.invalid(e.getMessage());
+		}finally {
+			input.limit(received);
+			input.position(frameLength);
+			connection.compactInput();
+		}
+		return request;
+	}
+	
+	/**
+	 * permette di affidare ad un worker la prossima richiesta della connessione, se non ce n'è già una in esecuzione.
+	 * Eseguendo una richiesta alla volta le risposte vengono accodate nello stesso ordine delle richieste
+	 * 
+	 * @param reactor: reactor che gestisce la connessione del client
+	 * @param key: chiave contenente il SocketChannel del client
+	 */
+	private void dispatch(Reactor reactor, SelectionKey key) {
+		
+		SocketChannel clientChannel = (SocketChannel) key.channel();
+		Connection connection = (Connection) key.attachment();
+		
+		while(!connection.isExecuting()) {
+			Request request = connection.pollRequest();
+			if(request == null) return;
+			
+			//alle richieste non ben formate rispondo senza eseguirle
+			if(request.isInvalid()) {
+				connection.enqueueAnswer("< Errore. " + request.getField(0));
+				continue;
+			}
+			
+			InetAddress IP = clientChannel.socket().getInetAddress();
+			int port = clientChannel.socket().getPort();
+			
+			try {
+				this.workers.execute(() -> {
+					String answer;
+					try {
+						answer = this.executeRequest(request, connection, IP, port);
+					}catch (Exception e) {
+						e.printStackTrace();
+						answer = "< Errore. impossibile completare l'operazione " + request.getName();
 					}
-					this.addCard(clientChannel, sel, parameters[1], parameters[2], description.toString().trim(), clientChannel.socket().getInetAddress(), clientChannel.socket().getPort());
-					break;
-				case "move_card":
-					this.moveCard(clientChannel, sel, parameters[1], parameters[2], parameters[3], parameters[4], clientChannel.socket().getInetAddress(), clientChannel.socket().getPort());
-					break;	
-				case "get_card_history":
-					this.getCardHistory(clientChannel, sel, parameters[1], parameters[2], clientChannel.socket().getInetAddress(), clientChannel.socket().getPort());
-					break;						
-				case "cancel_project":
-					this.cancelProject(clientChannel, sel, parameters[1], clientChannel.socket().getInetAddress(), clientChannel.socket().getPort(), recoveryDir);
-					break;
-				}
-			 }
+					//la risposta viene consegnata al reactor, che è l'unico a modificare la chiave
+					reactor.post(key, answer);
+				});
+				connection.setExecuting(true);
+			}catch (RejectedExecutionException e) {
+				//la coda dei worker è piena, la richiesta non viene eseguita
+				connection.enqueueAnswer("< Errore. server sovraccarico, riprovare più tardi");
+			}
 		}
 	}
 	
 	/**
-	 * permette di scrivere sul canale in entrare del client in modo che questo riceva la risposta del server
+	 * permette al reactor di accodare la risposta prodotta da un worker e di passare alla richiesta successiva
 	 * 
-	 * @param sel: selettore
+	 * @param reactor: reactor che gestisce la connessione del client
+	 * @param key: chiave contenente il SocketChannel del client
+	 * @param answer: risposta da inviare al client
+	 * @throws IOException se la lunghezza di una richiesta non è valida
+	 */
+	void deliver(Reactor reactor, SelectionKey key, String answer) throws IOException {
+		Connection connection = (Connection) key.attachment();
+		connection.enqueueAnswer(answer);
+		connection.setExecuting(false);
+		this.processInput(reactor, key);
+	}
+	
+	/**
+	 * permette di aggiornare le operazioni di interesse del canale: la lettura se il client può inviare altre
+	 * richieste, la scrittura se ci sono risposte da inviare
+	 * 
+	 * @param key: chiave contenente il SocketChannel del client
+	 */
+	private void updateInterest(SelectionKey key) {
+		Connection connection = (Connection) key.attachment();
+		int ops = 0;
+		if(connection.canRead()) ops |= SelectionKey.OP_READ;
+		if(!connection.getOutput().isEmpty()) ops |= SelectionKey.OP_WRITE;
+		key.interestOps(ops);
+	}
+	
+	/**
+	 * permette di eseguire la richiesta del client, viene eseguito da un worker e non dal reactor in modo che le operazioni
+	 * bloccanti (scritture su disco, notifiche) non blocchino le altre connessioni. L'utente richiedente viene ricavato
+	 * dalla sessione associata alla connessione
+	 * 
+	 * @param request: richiesta decodificata del client
+	 * @param connection: connessione da cui è arrivata la richiesta
+	 * @param IP: indirizzo IP del client
+	 * @param port: porta del client
+	 * @return risposta da inviare al client
+	 * @throws IOException
+	 */
+	private String executeRequest(Request request, Connection connection, InetAddress IP, int port) throws IOException {
+		if(request.getOpcode() == Protocol.LOGIN) return this.login(request.getField(0), request.getField(1), connection, IP, port);
+		
+		//tutte le altre operazioni richiedono che l'utente abbia effettuato il login sulla connessione
+		Session session = connection.getSession();
+		if(session == null) return "< Errore. è necessario effettuare il login";
+		User client = session.getUser();
+		
+		switch(request.getOpcode()) {
+		case Protocol.LOGOUT:
+			return this.logout(connection);
+		case Protocol.LIST_PROJECTS:
+			return this.listProjects(client);
+		case Protocol.CREATE_PROJECT:
+			return this.createProject(client, request.getField(0), request.getFieldsNumber() > 1 ? request.getField(1) : null);
+		case Protocol.JOIN_CHAT:
+			return this.joinChat(request.getField(0), client);
+		case Protocol.ADD_MEMBER:
+			return this.addMember(request.getField(0), request.getField(1), client);
+		case Protocol.SHOW_MEMBERS:
+			return this.showMembers(request.getField(0), client);
+		case Protocol.SHOW_CARDS:
+			return this.showCards(request.getField(0), client);
+		case Protocol.SHOW_CARD:
+			return this.showCard(request.getField(0), request.getField(1), client);
+		case Protocol.ADD_CARD:
+			return this.addCard(request.getField(0), request.getField(1), request.getField(2), client);
+		case Protocol.MOVE_CARD:
+			return this.moveCard(request.getField(0), request.getField(1), request.getField(2), request.getField(3), client);
+		case Protocol.GET_CARD_HISTORY:
+			return this.getCardHistory(request.getField(0), request.getField(1), client);
+		case Protocol.CANCEL_PROJECT:
+			return this.cancelProject(request.getField(0), client);
+		case Protocol.BATCH:
+			return this.batch(request.getField(0), request.getField(1), client);
+		}
+		return "< Errore. operazione " + request.getName() + " non disponibile";
+	}
+	
+	/**
+	 * permette di scrivere sul canale in entrare del client in modo che questo riceva la risposta del server, la risposta
+	 * viene scritta a blocchi e, se il buffer di output del socket si riempie, la scrittura riprende quando il canale
+	 * torna ad essere scrivibile. I blocchi scritti vengono restituiti al pool
+	 * 
+	 * @param reactor: reactor che gestisce la connessione del client
 	 * @param key: chiave contenente il SocketChannel del client
 	 * @throws IOException
 	 */
-	private void answer(Selector sel, SelectionKey key) throws IOException{
+	void answer(Reactor reactor, SelectionKey key) throws IOException{
 		
 		//estraggo il socketchannel del client dalla chiave che ha espresso l'interessa per la scrittura sul buffer di output
 		SocketChannel clientChannel = (SocketChannel) key.channel();
 		
-		//estraggo il messaggio da mandare al client
-		String answ = (String) key.attachment();
+		//estraggo i blocchi della risposta da mandare al client
+		Connection connection = (Connection) key.attachment();
+		ArrayDeque<ByteBuffer> output = connection.getOutput();
 		
-		//scrivo il messaggio sul buffer di output
-		ByteBuffer serverAnsw = ByteBuffer.wrap(answ.getBytes("UTF-8"));
-		clientChannel.write(serverAnsw);
-		if (!serverAnsw.hasRemaining()) {
-			serverAnsw.clear();
-            this.registerRead(sel, clientChannel);
-        }
+		//scrivo i blocchi sul buffer di output
+		while(!output.isEmpty()) {
+			ByteBuffer chunk = output.peek();
+			clientChannel.write(chunk);
+			if(chunk.hasRemaining()) return;
+			connection.releaseChunk(output.poll());
+		}
+		
+		//le risposte accodate sono state inviate completamente
+		Metrics.record(ALLOCATION_METRIC, connection.takeAllocatedBytes(), connection.answersWritten());
+		
+		//il client può di nuovo inviare richieste, alcune potrebbero essere già state ricevute
+		this.processInput(reactor, key);
 	}
 	
 	
@@ -287,12 +570,7 @@ public class Server {
 	 * @return l'oggeto User associato al nome se la ricerca va a buon fine, null altrimenti
 	 */
 	private User searchUser(String name) {
-		for(int i = 0; i < this.users.size(); i++) {
-			if(this.users.get(i).getNickName().equals(name)) {
-				return this.users.get(i);
-			}
-		}
-		return null;
+		return this.users.get(name);
 	}
 	
 	/**
@@ -302,49 +580,23 @@ public class Server {
 	 * @return l'oggetto Project associato al nome, null altrimenti
 	 */
 	private Project searchProject(String projectName) {
-		for(int i = 0; i < this.projects.size(); i++) {
-			if(this.projects.get(i).getProjectName().equals(projectName)) {
-				return this.projects.get(i);
-			}
-		}
-		return null;
-	}
-	
-	/**
-	 * permette di tramutare la struttura dati che mantiene le informazioni degli utenti in una stringa da inviare al client
-	 * 
-	 * @return stringa contenete gli utenti registrati al servizio
-	 */
-	private String usersToString() {
-		StringBuilder str = new StringBuilder();
-		for(User tmp : this.users) {
-			 str.append(tmp.getNickName()+ ";" +tmp.getState() + " ");
-		 }
-		return str.toString().trim();
-	}
-
-	/**
-	 * permette di cercare un utente in base al suo indirzzo IP e alla sua porta
-	 * 
-	 * @param IP: indirizzo IP dell'utente
-	 * @param port: porta dell'utente
-	 * @return l'oggeto User associato al nome se la ricerca va a buon fine, null altrimenti
-	 */
-	private User getUserFormIp(InetAddress IP, int port) {
-		for(User tmp : this.users) {
-			if(tmp.getState().equals("Online")) {
-				if(tmp.getIp().equals(IP) && tmp.getPort() == port) return tmp;
+		synchronized(this.projects) {
+			for(int i = 0; i < this.projects.size(); i++) {
+				if(this.projects.get(i).getProjectName().equals(projectName)) {
+					return this.projects.get(i);
+				}
 			}
 		}
 		return null;
 	}
 	
 	/**
-	 * permette di generare un indirizzo IP di multicast 
+	 * permette di generare un indirizzo IP di multicast, il metodo è sincronizzato dato che più reactor possono
+	 * creare un progetto nello stesso momento
 	 * 
 	 * @return
 	 */
-	private String generateIP() {
+	private synchronized String generateIP() {
 		
 		//se ci sono indirizzi riutilizzabili li utilizzo
 		if(!this.reusableAddresses.isEmpty()) {
@@ -376,25 +628,39 @@ public class Server {
         return newIP;
 	}
 	
+	/**
+	 * permette di rendere nuovamente disponibile l'indirizzo IP di multicast di un progetto eliminato
+	 * 
+	 * @param ip: indirizzo IP da riutilizzare
+	 */
+	private synchronized void releaseIP(String ip) {
+		this.reusableAddresses.add(ip);
+	}
+	
 	
 	// ---------------------------------- HANDLERS DELLE RICHIESTE ---------------------------------- //
 	
 	/**
-	 * implementa l'operazione di login richeista dal client
+	 * implementa l'operazione di login richiesta dal client, in caso di successo alla connessione viene associata
+	 * la sessione dell'utente
 	 * 
 	 * @param name: nome utente
-	 * @param psw: password associata all'utente
-	 * @param clientChannel: SocketChannel del client
-	 * @param sel: selettore 
-	 * @param IP: indirizzo IP dell'utente
-	 * @param port: porta dell'utente
+	 * @param psw: password utente
+	 * @param connection: connessione da cui è arrivata la richiesta
+	 * @param IP: indrizzo IP dell'utente richiedente
+	 * @param port: porta dell'utente richiedente
+	 * @return risposta da inviare al client
 	 * @throws IOException
 	 */
-	private boolean login(String name, String psw, SocketChannel clientChannel, Selector sel, InetAddress IP, int port) throws IOException{
+	private String login(String name, String psw, Connection connection, InetAddress IP, int port) throws IOException{
 		
 		StringBuilder str = new StringBuilder();
 		User user = searchUser(name);
-		boolean logged = false;
+		
+		//sulla connessione può essere autenticato un solo utente alla volta
+		if(connection.getSession() != null) {
+			return "< Errore. l'utente " + connection.getSession().getUser().getNickName() + " ha già effettuato il login";
+		}
 		
 		//l'utente ha effettuato il login con successo
 		 if (user != null && user.getPsw().equals(psw)) {
@@ -406,117 +672,153 @@ public class Server {
 			 user.setPort(port);
 			 
 			 //setto lo stato dell'utente a Online
-			 user.setState("Online");
+			 this.users.setState(user, UserState.Online);
+			 
+			 //le richieste successive della connessione verranno eseguite per conto dell'utente. Se la connessione è stata
+			 //chiusa durante il login la sua sessione non è più chiusa da nessuno, il login viene annullato
+			 Session session = new Session(user, IP, port);
+			 if(!connection.openSession(session)) {
+				 if(session.isCurrent()) this.users.setState(user, UserState.Offline);
+				 return "< Errore. connessione chiusa durante il login";
+			 }
+			 
+			 //notifica evento, inviata agli altri client allo scadere della finestra senza ritardare la risposta
+			 eventManager.presenceChanged(user);
 			 
-			 //costruisco il messaggio e la struttura dati da inviare al client
+			 //costruisco il messaggio e la struttura dati da inviare al client: versione e stato degli utenti, i client
+			 //testuali precedenti alle notifiche versionate ricevono solo lo stato degli utenti
 			 str.append("< " + name + " logged in\n");
-			 str.append(this.usersToString());
-			 logged = true;
+			 if(connection.getMode() == Connection.Mode.TEXT) str.append(this.users.toPresenceString());
+			 else str.append(eventManager.getPresence());
 		 }
 		 //l'utente non è riuscito ad effettuare il login
 		 else {
 			 str.append("< Errore. utente " + name + " non esistente o password errata");
 		 }
-		 clientChannel.register(sel, SelectionKey.OP_WRITE, str.toString());
-		 return logged;
+		 return str.toString();
 	}
 	
 	/**
-	 * implementa l'operazione di logout richiesta dal client
+	 * implementa l'operazione di logout richiesta dal client, la sessione viene rimossa dalla connessione
 	 * 
-	 * @param clientChannel: SocketChannel del client
-	 * @param sel: selettore
-	 * @param IP: indrizzo IP dell'utente richiedente
-	 * @param port: porta dell'utente richiedente
+	 * @param connection: connessione da cui è arrivata la richiesta
+	 * @return risposta da inviare al client
 	 * @throws IOException
 	 */
-	private void logout(SocketChannel clientChannel, Selector sel, InetAddress IP, int port) throws IOException {
+	private String logout(Connection connection) throws IOException {
 
-		User user = this.getUserFormIp(IP,port);
+		Session session = connection.getSession();
+		connection.setSession(null);
 		
-		if(user != null) user.setState("Offline"); 
+		User user = session.getUser();
+		//la sessione va verificata prima di cambiare lo stato, dopo il logout non risulta più corrente
+		boolean current = session.isCurrent();
+		if(current) this.users.setState(user, UserState.Offline); 
 		String answer = "< " + user.getNickName() + " logged out";
-		clientChannel.register(sel, SelectionKey.OP_WRITE, answer);
+		//notifica evento
+		if(current) eventManager.presenceChanged(user);
+		return answer;
+	}
+	
+	/**
+	 * permette di chiudere la sessione di una connessione chiusa senza logout: se l'utente risulta ancora collegato
+	 * da questa connessione diventa Offline e gli altri utenti vengono notificati
+	 * 
+	 * @param connection: connessione chiusa
+	 */
+	void closeSession(Connection connection) {
+		Session session = connection.closeSession();
+		if(session == null || !session.isCurrent()) return;
+		
+		this.users.setState(session.getUser(), UserState.Offline);
+		System.out.println("Server WORTH: sessione dell'utente " + session.getUser().getNickName() + " chiusa insieme alla connessione");
+		//la notifica viene solo accodata ai client, non blocca il reactor
+		this.eventManager.presenceChanged(session.getUser());
 	}
 	
 	/**
 	 * permette al richiedente di visualizzare i progetti di cui fa parte
 	 * 
-	 * @param clientChannel: SocketChannel del client
-	 * @param sel: selettore
-	 * @param IP: indrizzo IP dell'utente richiedente
-	 * @param port: porta dell'utente richiedente
+	 * @param client: utente richiedente
+	 * @return risposta da inviare al client
 	 * @throws IOException
 	 */
-	private void listProjects(SocketChannel clientChannel, Selector sel, InetAddress IP, int port)throws IOException {
+	private String listProjects(User client)throws IOException {
 		
 		StringBuilder str = new StringBuilder();
 		
-		//in base a IP e porta si identifica il client, quest'ultimo viene cercato all'interno delle liste dei membri di tutti i progetti
-		//in modo tale da poter identificare i progetti di cui fa parte
-		for(Project p : this.projects) {
-			String projectMembers = p.showMembers();
-			User client = this.getUserFormIp(IP, port);
-			if(projectMembers.contains(client.getNickName()))  str.append(p.getProjectName() + "\n");
-		}
-		if(str.length() == 0) str.append("l'utente " + getUserFormIp(IP,port).getNickName() + " non fa parte di nessun progetto\n");
-		clientChannel.register(sel, SelectionKey.OP_WRITE, str.toString().trim());
+		//i progetti di cui il client fa parte sono indicizzati nell'utente stesso
+		for(Project p : client.getProjects()) str.append(p.getProjectName() + "\n");
+		if(str.length() == 0) str.append("l'utente " + client.getNickName() + " non fa parte di nessun progetto\n");
+		return str.toString().trim();
 	}
 	
 	/**
 	 *permette al richiedente di creare un nuovo progetto con un nome unico
 	 * 
-	 * @param clientChannel: SocketChannel del client
-	 * @param sel: selettore
-	 * @param IP: indrizzo IP dell'utente richiedente
-	 * @param port: porta dell'utente richiedente
+	 * @param projectAdmin: utente richiedente, diventa membro del progetto
 	 * @param projectName: nome del progetto
+	 * @param workflowSpec: specifica del workflow personalizzato del progetto, null per il workflow di default
+	 * @return risposta da inviare al client
 	 * @throws IOException
 	 */
-	private void createProject(SocketChannel clientChannel, Selector sel, InetAddress IP, int port, String projectName) throws IOException {
+	private String createProject(User projectAdmin, String projectName, String workflowSpec) throws IOException {
 		
 		StringBuilder str = new StringBuilder();
+		Project newProject;
+		long seq;
+		Workflow workflow = Workflow.DEFAULT;
 		
-		//verifico se il nome proposto dall'utente è già in utilizzo
-		if(this.searchProject(projectName) != null) {
-			str.append("< Errore. nome '" + projectName + "' già in uso");
-			clientChannel.register(sel, SelectionKey.OP_WRITE, str.toString().trim());
-			return;
+		//il workflow viene compilato prima di creare il progetto, una specifica non valida non crea nulla
+		if(workflowSpec != null) {
+			try {
+				workflow = Workflow.parse(workflowSpec);
+			}catch (IllegalArgumentException e) {
+				return "< Errore. workflow non valido: " + e.getMessage();
+			}
 		}
 		
-		//recupero l'utente che ha fatto richiesta della creazione del progetto
-		User projectAdmin = this.getUserFormIp(IP, port);
-		
-		//creo il progetto e aggiungo l'utente che ne ha chiesto la creazione
-		Project newProject = new Project(projectName);
-		newProject.setIP(this.generateIP());
-		newProject.setPort(UDPport);
-		newProject.addMember(projectAdmin);
-		
-		//aggiungo il nuovo progetto all'interno della lista dei progetti del server
-		this.projects.add(newProject);
+		//la verifica sul nome e l'inserimento devono essere atomici, due reactor potrebbero creare lo stesso progetto contemporaneamente
+		synchronized(this.projects) {
+			//verifico se il nome proposto dall'utente è già in utilizzo
+			if(this.searchProject(projectName) != null) {
+				str.append("< Errore. nome '" + projectName + "' già in uso");
+				return str.toString().trim();
+			}
+			
+			//creo il progetto e aggiungo l'utente che ne ha chiesto la creazione
+			newProject = new Project(projectName);
+			newProject.setWorkflow(workflow);
+			newProject.setIP(this.generateIP());
+			newProject.setPort(UDPport);
+			newProject.addMember(projectAdmin);
+			projectAdmin.addProject(newProject);
+			
+			//aggiungo il nuovo progetto all'interno della lista dei progetti del server
+			this.projects.add(newProject);
+			this.stateWriter.markProject(newProject);
+			
+			//il workflow di default non viene salvato, così i progetti già esistenti non ne hanno bisogno
+			seq = this.journal.append(Journal.CREATE_PROJECT, System.currentTimeMillis(), projectName, projectAdmin.getNickName(), workflow == Workflow.DEFAULT ? "" : workflow.getSpec());
+		}
 		
-		//creo la cartella dedicata al progetto all'interno del File System
-		this.createDirProject(projectName);
-		//creao il file contenente i membri del progetto
-		this.createMembersFile(newProject);
+		//la risposta viene inviata solo quando la modifica è su disco, l'attesa avviene fuori dai lock
+		this.journal.commit(seq);
 		str.append("< " + projectName + " creato correttamente");
-		clientChannel.register(sel, SelectionKey.OP_WRITE, str.toString().trim());
+		return str.toString().trim();
 	}
 	
 	/**
 	 *  permette all'utente richiedente di aggiungere un nuovo membro al progetto specificato
 	 * se quest'ultimo non è già presente
 	 * 
-	 * @param clientChannel: SocketChannel del client
-	 * @param sel: selettore
-	 * @param IP: indrizzo IP dell'utente richiedente
-	 * @param port: porta dell'utente richiedente
+	 * @param client: utente richiedente
 	 * @param projectName: nome del progetto
 	 * @param nickName: nome dell'utente da aggiungere
+	 * @return risposta da inviare al client
 	 * @throws IOException
 	 */
-	private void addMember(SocketChannel clientChannel, Selector sel, String projectName, String nickName , InetAddress IP, int port) throws IOException {
+	private String addMember(String projectName, String nickName , User client) throws IOException {
 		
 		String answer;
 		
@@ -526,23 +828,32 @@ public class Server {
 		//se il progetto non è stato trovato
 		if(project == null) {
 			answer = "< Errore. Progetto " + projectName + " non trovato";
-			clientChannel.register(sel, SelectionKey.OP_WRITE, answer);
-			return;
+			return answer;
 		}
 		
-		//recupero i membri del progetto e verifico che il chiamate abbia i diritti per aggiungere un membro 
-		String projectMembers = project.showMembers();
-		User client = this.getUserFormIp(IP, port);
-		if(projectMembers.contains(client.getNickName())) {
+		//verifico che il chiamate abbia i diritti per aggiungere un membro 
+		if(project.isMember(client)) {
 			//recupero l'utente associato al nickname che si vuole aggiungere al progetto
 			User newMember = this.searchUser(nickName);
 			//se l'utente da aggiungere è registrato lo aggiungo al progetto
 			if(newMember != null) {
+				boolean added;
+				long seq = 0;
+				//l'ordine dei record nel journal deve essere quello in cui le modifiche sono applicate al progetto
+				synchronized(project) {
+					//il progetto può essere stato eliminato dopo la ricerca, l'eliminazione avviene con il suo lock
+					if(!this.projects.contains(project)) return "< Errore. Progetto " + projectName + " non trovato";
+					added = project.addMember(newMember);
+					if(added) this.stateWriter.markProject(project);
+					if(added) seq = this.journal.append(Journal.ADD_MEMBER, System.currentTimeMillis(), projectName, newMember.getNickName());
+					//l'indice viene aggiornato con il lock: un'eliminazione successiva rimuove il progetto anche dal nuovo membro
+					if(added) newMember.addProject(project);
+				}
+				//la risposta viene inviata solo quando la modifica è su disco, l'attesa avviene fuori dal lock del progetto
+				if(added) this.journal.commit(seq);
 				//se l'utente da aggiungere è gia presente nel progetto
-				if(!project.addMember(newMember)) answer = "< " + newMember.getNickName() + " già presente nel progetto " + projectName;
+				if(!added) answer = "< " + newMember.getNickName() + " già presente nel progetto " + projectName;
 				else {
-					//creo il file dedicato ai memebri del progetto all'interno del file system
-					this.createMembersFile(project);
 					answer = "< " + newMember.getNickName() + " aggiunto correttamente al progetto " + projectName;
 					//notifica
 					project.sendMessage(client.getNickName() + " ha aggiunto " + newMember.getNickName() + " al progetto");
@@ -551,20 +862,18 @@ public class Server {
 			//se l'utente da aggiungere NON è registrato restituisco un messaggio di errore
 			else answer = "< Errore. " + newMember + " non registrato";
 		}else answer = "< Errore. chiamante non appartiene al progetto";
-		clientChannel.register(sel, SelectionKey.OP_WRITE, answer);
+		return answer;
 	}
 	
 	/**
 	 * permette la visualizzazione dei membri di un determinato progetto se questo esiste
 	 * 
-	 * @param clientChannel: SocketChannel del client
-	 * @param sel: selettore
-	 * @param IP: indrizzo IP dell'utente richiedente
-	 * @param port: porta dell'utente richiedente
+	 * @param client: utente richiedente
 	 * @param projectName: nome del progetto
+	 * @return risposta da inviare al client
 	 * @throws IOException
 	 */
-	private void showMembers(SocketChannel clientChannel, Selector sel, String projectName, InetAddress IP, int port) throws IOException {
+	private String showMembers(String projectName, User client) throws IOException {
 		
 		StringBuilder str = new StringBuilder();
 		
@@ -574,35 +883,29 @@ public class Server {
 		//se il progetto projectName non esiste
 		if(project == null) {
 			str.append("Progetto " + projectName + " non trovato\n");
-			clientChannel.register(sel, SelectionKey.OP_WRITE, str.toString().trim());
-			return;
+			return str.toString().trim();
 		}
 		
-		//recupero i membri del progetto e verifico che il chiamate abbia i diritti per visualizzare i membri
-		String projectMembers = project.showMembers();
-		User client = this.getUserFormIp(IP, port);
-		if(projectMembers.contains(client.getNickName())) {
-			String[] users = projectMembers.split(" ");
-			for(String user : users) {
+		//verifico che il chiamate abbia i diritti per visualizzare i membri
+		if(project.isMember(client)) {
+			for(String user : project.getMembers()) {
 				str.append(user + "\n");
 			}
 		}
 		else str.append("chiamante non appartiene al progetto\n");
 		
-		clientChannel.register(sel, SelectionKey.OP_WRITE, str.toString().trim());
+		return str.toString().trim();
 	}
 	
 	/**
 	 * permette di visualizzare le carte di un determinato progetto se questo esiste
 	 * 
-	 * @param clientChannel: SocketChannel del client
-	 * @param sel: selettore
-	 * @param IP: indrizzo IP dell'utente richiedente
-	 * @param port: porta dell'utente richiedente
+	 * @param client: utente richiedente
 	 * @param projectName: nome del progetto
+	 * @return risposta da inviare al client
 	 * @throws IOException
 	 */
-	private void showCards(SocketChannel clientChannel, Selector sel, String projectName, InetAddress IP, int port) throws IOException {
+	private String showCards(String projectName, User client) throws IOException {
 		StringBuilder str = new StringBuilder();
 		
 		//recupero il progetto con nome projectName
@@ -611,30 +914,25 @@ public class Server {
 		//se il progetto projectName non esiste 
 		if(project == null) {
 			str.append("Progetto " + projectName + " non trovato\n");
-			clientChannel.register(sel, SelectionKey.OP_WRITE, str.toString().trim());
-			return;
+			return str.toString().trim();
 		}
 		
-		//recupero i membri del progetto e verifico che il chiamate abbia i diritti per visualizzare i membri
-		String projectMembers = project.showMembers();
-		User client = this.getUserFormIp(IP, port);
-		if(projectMembers.contains(client.getNickName())) str.append(project.showCards());
+		//verifico che il chiamate abbia i diritti per visualizzare i membri
+		if(project.isMember(client)) str.append(project.showCards());
 		else str.append("chiamante non appartiene al progetto\n");
-		clientChannel.register(sel, SelectionKey.OP_WRITE, str.toString().trim());
+		return str.toString().trim();
 	}
 	
 	/**
 	 * permette di visualizzare le informazioni di una determinata carta
 	 * 
-	 * @param clientChannel: SocketChannel del client
-	 * @param sel: selettore
-	 * @param IP: indrizzo IP dell'utente richiedente
-	 * @param port: porta dell'utente richiedente
+	 * @param client: utente richiedente
 	 * @param projectName: nome del progetto
 	 * @param cardName: nome della carta
+	 * @return risposta da inviare al client
 	 * @throws IOException
 	 */
-	private void showCard(SocketChannel clientChannel, Selector sel, String projectName, String cardName, InetAddress IP, int port) throws IOException{
+	private String showCard(String projectName, String cardName, User client) throws IOException{
 		
 		StringBuilder str = new StringBuilder();
 		
@@ -644,31 +942,26 @@ public class Server {
 		//se il progetto projectName non esiste
 		if(project == null) {
 			str.append("Progetto " + projectName + " non trovato");
-			clientChannel.register(sel, SelectionKey.OP_WRITE, str.toString().trim());
-			return;
+			return str.toString().trim();
 		}
 
-		//recupero i membri del progetto e verifico che il chiamate abbia i diritti per visualizzare i membri
-		String projectMembers = project.showMembers();
-		User client = this.getUserFormIp(IP, port);
-		if(projectMembers.contains(client.getNickName())) str.append(project.showCard(cardName));
+		//verifico che il chiamate abbia i diritti per visualizzare i membri
+		if(project.isMember(client)) str.append(project.showCard(cardName));
 		else str.append("chiamante non appartiene al progetto");
-		clientChannel.register(sel, SelectionKey.OP_WRITE, str.toString().trim());
+		return str.toString().trim();
 	}
 	
 	/**
 	 * permette l'aggiunta di una nuova carta ad un progetto specifico
 	 * 
-	 * @param clientChannel: SocketChannel del client
-	 * @param sel: selettore
-	 * @param IP: indrizzo IP dell'utente richiedente
-	 * @param port: porta dell'utente richiedente
+	 * @param client: utente richiedente
 	 * @param projectName: nome del progetto
 	 * @param cardName: nome della carta
 	 * @param description: descrizione della carta
+	 * @return risposta da inviare al client
 	 * @throws IOException
 	 */
-	private void addCard(SocketChannel clientChannel, Selector sel, String projectName, String cardName, String description, InetAddress IP, int port) throws IOException{
+	private String addCard(String projectName, String cardName, String description, User client) throws IOException{
 		
 		//recupero il progetto con nome projectName
 		Project project = this.searchProject(projectName);
@@ -677,42 +970,54 @@ public class Server {
 		//se il progetto projectName non esiste
 		if(project == null) {
 			answer = "< Progetto " + projectName + " non trovato";
-			clientChannel.register(sel, SelectionKey.OP_WRITE, answer);
-			return;
+			return answer;
 		}
 		
-		//recupero i membri del progetto e verifico che il chiamate abbia i diritti per aggiungere una carta
-		String projectMembers = project.showMembers();
-		User client = this.getUserFormIp(IP, port);
-		if(projectMembers.contains(client.getNickName())) {
+		//il file della carta prenderebbe il posto di quello dei membri o del workflow del progetto
+		if(StateWriter.isReservedName(cardName)) return "< Errore. il nome " + cardName + " è riservato e non può essere usato per una carta";
+		
+		//verifico che il chiamate abbia i diritti per aggiungere una carta
+		if(project.isMember(client)) {
 			//se la carta non è stata aggiunta
 			Card newCard = new Card(cardName, description);
-			if(project.addCardToProject(newCard)) {
-				this.createCardFile(projectName, newCard);
+			boolean added;
+			long seq = 0;
+			//l'ordine dei record nel journal deve essere quello in cui le modifiche sono applicate al progetto
+			synchronized(project) {
+				long now = System.currentTimeMillis();
+				added = project.addCardToProject(newCard, now);
+				if(added) {
+					//la segnalazione precede il record, così il checkpoint che lo elimina dal journal scrive anche la carta
+					this.stateWriter.markCard(project, newCard);
+					seq = this.journal.append(Journal.ADD_CARD, now, projectName, cardName, description);
+					newCard.setSeq(seq);
+				}
+			}
+			if(added) {
+				//la risposta viene inviata solo quando la modifica è su disco, l'attesa avviene fuori dal lock del progetto
+				this.journal.commit(seq);
 				answer = "< la card " + cardName + " è stata aggiunta correttamente al progetto " + projectName;
 				//notifica
 				project.sendMessage(client.getNickName() + " ha aggiunto una nuova card al progetto");
 			}
 			else answer = "< la card " + cardName + " è gia presente nel progetto " + projectName;
 		}else answer = "< chiamante non appartiene al progetto";
-		clientChannel.register(sel, SelectionKey.OP_WRITE, answer);
+		return answer;
 		
 	}
 	
 	/**
 	 * permette di muovere una carta all'interno di un progetto, da una lista sorgente ad una di destinazione
 	 * 
-	 * @param clientChannel: SocketChannel del client
-	 * @param sel: selettore
-	 * @param IP: indrizzo IP dell'utente richiedente
-	 * @param port: porta dell'utente richiedente
+	 * @param client: utente richiedente
 	 * @param projectName: nome del progetto
 	 * @param cardName: nome della carta che si vuole muovere
 	 * @param src: lista sorgente
 	 * @param dest: lista destinazione
+	 * @return risposta da inviare al client
 	 * @throws IOException
 	 */
-	private void moveCard(SocketChannel clientChannel, Selector sel, String projectName, String cardName, String src, String dest, InetAddress IP, int port) throws IOException{
+	private String moveCard(String projectName, String cardName, String src, String dest, User client) throws IOException{
 		
 		//recupero il progetto con nome projectName
 		Project project = this.searchProject(projectName);
@@ -722,38 +1027,120 @@ public class Server {
 		//se il progetto projectName non esiste
 		if(project == null) {
 			answer = "< Progetto " + projectName + " non trovato";
-			clientChannel.register(sel, SelectionKey.OP_WRITE, answer);
-			return;
+			return answer;
 		}
 		
-		//recupero i membri del progetto e verifico che il chiamate abbia i diritti per muovere una carta
-		String projectMembers = project.showMembers();
-		User client = this.getUserFormIp(IP, port);
-		if(projectMembers.contains(client.getNickName())) {
+		//verifico che il chiamate abbia i diritti per muovere una carta
+		if(project.isMember(client)) {
 			//se il movimento è consentito e la carta esiste
-			Card cardMoved = project.moveCard(cardName, src, dest);
+			Card cardMoved;
+			long seq = 0;
+			//l'ordine dei record nel journal deve essere quello in cui le modifiche sono applicate al progetto
+			synchronized(project) {
+				long now = System.currentTimeMillis();
+				cardMoved = project.moveCard(cardName, src, dest, now);
+				if(cardMoved != null) {
+					this.stateWriter.markCard(project, cardMoved);
+					seq = this.journal.append(Journal.MOVE_CARD, now, projectName, cardName, src, dest);
+					cardMoved.setSeq(seq);
+				}
+			}
 			if(cardMoved != null) {
-				this.createCardFile(projectName, cardMoved);
+				//la risposta viene inviata solo quando la modifica è su disco, l'attesa avviene fuori dal lock del progetto
+				this.journal.commit(seq);
 				answer = "< la card " + cardName + " è stata spostata da " + src + " a " + dest;
 				project.sendMessage(client.getNickName() + " ha spostato la carta " + cardMoved.getCardName() + " da " + src + " a " + dest);
 			}
 			else answer = "< Impossibile spostare la card " + cardName + " del progetto " + projectName + ": spostamento non consentito o carta non trovata";
 		}
 		else answer = "< chiamante non appartiene al progetto";
-		clientChannel.register(sel, SelectionKey.OP_WRITE, answer);
+		return answer;
+	}
+	
+	/**
+	 * permette di eseguire in un'unica richiesta più operazioni (add_card e move_card) sulle carte di un progetto.
+	 * I permessi del chiamante vengono verificati una sola volta, le operazioni vengono applicate senza che altre
+	 * richieste sullo stesso progetto si intromettano, ogni operazione eseguita viene accodata al journal e sulla chat
+	 * del progetto viene inviata un'unica notifica riassuntiva
+	 * 
+	 * @param projectName: nome del progetto
+	 * @param operations: operazioni codificate con Protocol.encodeBatch
+	 * @param client: utente richiedente
+	 * @return risposta da inviare al client, contenente l'esito di ogni operazione
+	 * @throws IOException
+	 */
+	private String batch(String projectName, String operations, User client) throws IOException{
+		
+		//recupero il progetto con nome projectName
+		Project project = this.searchProject(projectName);
+		
+		//se il progetto projectName non esiste
+		if(project == null) return "< Progetto " + projectName + " non trovato";
+		
+		//verifico che il chiamate abbia i diritti per modificare le carte
+		if(!project.isMember(client)) return "< chiamante non appartiene al progetto";
+		
+		ArrayList<String[]> decoded = Protocol.decodeBatch(operations);
+		StringBuilder results = new StringBuilder();
+		int added = 0;
+		int moved = 0;
+		long seq = 0; //numero di sequenza dell'ultima operazione eseguita
+		
+		synchronized(project) {
+			for(int i = 0; i < decoded.size(); i++) {
+				String[] operation = decoded.get(i);
+				results.append("\n" + (i + 1) + ". ");
+				
+				if(operation[0].equals("add_card") && operation.length == 3 && StateWriter.isReservedName(operation[1])) {
+					results.append("< Errore. il nome " + operation[1] + " è riservato e non può essere usato per una carta");
+				}
+				else if(operation[0].equals("add_card") && operation.length == 3) {
+					Card newCard = new Card(operation[1], operation[2]);
+					long now = System.currentTimeMillis();
+					if(project.addCardToProject(newCard, now)) {
+						this.stateWriter.markCard(project, newCard);
+						seq = this.journal.append(Journal.ADD_CARD, now, projectName, operation[1], operation[2]);
+						newCard.setSeq(seq);
+						added++;
+						results.append("< la card " + operation[1] + " è stata aggiunta correttamente");
+					}
+					else results.append("< la card " + operation[1] + " è gia presente nel progetto " + projectName);
+				}
+				else if(operation[0].equals("move_card") && operation.length == 4) {
+					String src = operation[2].toUpperCase();
+					String dest = operation[3].toUpperCase();
+					long now = System.currentTimeMillis();
+					Card cardMoved = project.moveCard(operation[1], src, dest, now);
+					if(cardMoved != null) {
+						this.stateWriter.markCard(project, cardMoved);
+						seq = this.journal.append(Journal.MOVE_CARD, now, projectName, operation[1], src, dest);
+						cardMoved.setSeq(seq);
+						moved++;
+						results.append("< la card " + operation[1] + " è stata spostata da " + src + " a " + dest);
+					}
+					else results.append("< Impossibile spostare la card " + operation[1] + ": spostamento non consentito o carta non trovata");
+				}
+				else results.append("< Errore. operazione non valida: " + String.join(" ", operation));
+			}
+		}
+		
+		if(added + moved > 0) {
+			//un'unica attesa per tutte le operazioni, i record precedenti sono su disco insieme all'ultimo
+			this.journal.commit(seq);
+			project.sendMessage(client.getNickName() + " ha aggiunto " + added + " e spostato " + moved + " carte del progetto");
+		}
+		return "< batch sul progetto " + projectName + ": " + (added + moved) + " operazioni su " + decoded.size() + " eseguite" + results.toString();
 	}
 	
 	/**
 	 * permette ad un utente di unirsi alla chat di un progetto
 	 * 
-	 * @param clientChannel: SocketChannel del client
-	 * @param sel: selettore
-	 * @param IP: indrizzo IP dell'utente richiedente
-	 * @param port: porta dell'utente richiedente
+	 * @param client: utente richiedente
 	 * @param projectName: nome del progetto
+	 * @return risposta da inviare al client
 	 * @throws IOException
 	 */
-	private void joinChat(SocketChannel clientChannel, Selector sel, String projectName, InetAddress IP, int port) throws IOException{
+	private String joinChat(String projectName, User client) throws IOException{
 		
 		//recupero il progetto con nome projectName
 		Project project = this.searchProject(projectName);
@@ -762,31 +1149,26 @@ public class Server {
 		//se il progetto projectName non esiste
 		if(project == null) {
 			answer = "< Errore. Progetto " + projectName + " non trovato";
-			clientChannel.register(sel, SelectionKey.OP_WRITE, answer);
-			return;
+			return answer;
 		}
 		
-		//recupero i membri del progetto e verifico che il chiamate abbia i diritti per unirsi alla chat
-		String projectMembers = project.showMembers();
-		User client = this.getUserFormIp(IP, port);
-		if(projectMembers.contains(client.getNickName())) {
+		//verifico che il chiamate abbia i diritti per unirsi alla chat
+		if(project.isMember(client)) {
 			answer = project.getIP() + " " + project.getPort() + " " + client.getNickName();
 		}else answer = "< Errore. chiamante non appartenente al progetto";
-		clientChannel.register(sel, SelectionKey.OP_WRITE, answer);
+		return answer;
 	}
 	
 	/**
 	 * permette di visualizzare lo storico degli spostamenti di una determinata carta di un progetto
 	 * 
-	 * @param clientChannel: SocketChannel del client
-	 * @param sel: selettore
-	 * @param IP: indrizzo IP dell'utente richiedente
-	 * @param port: porta dell'utente richiedente
+	 * @param client: utente richiedente
 	 * @param projectName: nome del progetto nel quale è contenuta la carta
 	 * @param cardName: nome della carta di cui si vuole conoscere la storia
+	 * @return risposta da inviare al client
 	 * @throws IOException
 	 */
-	private void getCardHistory(SocketChannel clientChannel, Selector sel, String projectName, String cardName, InetAddress IP, int port) throws IOException{
+	private String getCardHistory(String projectName, String cardName, User client) throws IOException{
 		
 		StringBuilder str = new StringBuilder();
 		str.append("< ");
@@ -797,35 +1179,29 @@ public class Server {
 		//se il progetto projectName non esiste
 		if(project == null) {
 				str.append("Progetto " + projectName + " non trovato");
-				clientChannel.register(sel, SelectionKey.OP_WRITE, str.toString().trim());
-				return;
+				return str.toString().trim();
 		}
 		
-		//recupero i membri del progetto e verifico che il chiamate abbia i diritti per vedere la storia della carta
-		String projectMembers = project.showMembers();
-		User client = this.getUserFormIp(IP, port);
-		if(projectMembers.contains(client.getNickName())) {
-			//recupero la carta in base al nome
-			Card card = project.searchCardInProject(cardName);
+		//verifico che il chiamate abbia i diritti per vedere la storia della carta
+		if(project.isMember(client)) {
+			//la storia viene resa in stringa con i nomi delle liste del workflow del progetto
+			String history = project.getCardHistory(cardName);
 			//se la carta esiste
-			if(card != null) str.append(card.getHistory());
+			if(history != null) str.append(history);
 			else str.append("Impossibile visualizzare la storia di " + cardName + " del progetto " + projectName);
 		}
-		clientChannel.register(sel, SelectionKey.OP_WRITE, str.toString());
+		return str.toString();
 	}
 
 	/**
 	 * permette di elinimare un progetto dal database del server
 	 * 
-	 * @param clientChannel: SocketChannel del client
-	 * @param sel: selettore
-	 * @param IP: indrizzo IP dell'utente richiedente
-	 * @param port: porta dell'utente richiedente
+	 * @param client: utente richiedente
 	 * @param projectName: nome del progetto da eliminare
-	 * @param recoveryDir: cartella di backUp dalla quale dovrà essere eliminato il progetto
+	 * @return risposta da inviare al client
 	 * @throws IOException
 	 */
-	private void cancelProject(SocketChannel clientChannel, Selector sel, String projectName, InetAddress IP, int port,  File recoveryDir) throws IOException{
+	private String cancelProject(String projectName, User client) throws IOException{
 		
 		//recupero il progetto con nome projectName
 		Project project = this.searchProject(projectName);
@@ -834,183 +1210,222 @@ public class Server {
 		//se il progetto projectName non esiste
 		if(project == null) {
 			answer = "< Progetto " + projectName + " non trovato";
-			clientChannel.register(sel, SelectionKey.OP_WRITE, answer);
-			return;
+			return answer;
 		}
-		//recupero i membri del progetto e verifico che il chiamate abbia i diritti per eliminare un progetto
-		String projectMembers = project.showMembers();
-		User client = this.getUserFormIp(IP, port);
-		if(projectMembers.contains(client.getNickName())) {
-			//se tutte le card sono in stato DONE
-			if(project.getList("TODO").isEmpty() && project.getList("INPROGRESS").isEmpty() && project.getList("TOBEREVISED").isEmpty()) {
+		//verifico che il chiamate abbia i diritti per eliminare un progetto
+		if(project.isMember(client)) {
+			boolean removed;
+			long seq = 0;
+			//l'ordine dei record nel journal deve essere quello in cui le modifiche sono applicate al progetto
+			synchronized(project) {
+				//la rimozione e il record sono atomici rispetto a createProject: un progetto ricreato con lo stesso nome
+				//ha il record di creazione nel journal dopo quello di eliminazione
+				synchronized(this.projects) {
+					//se tutte le card sono in stato DONE
+					removed = project.isCompleted() && this.projects.remove(project);
+					if(removed) this.stateWriter.markDeleted(project);
+					if(removed) seq = this.journal.append(Journal.DELETE_PROJECT, System.currentTimeMillis(), projectName);
+				}
+			}
+			if(removed) {
+				//la risposta viene inviata solo quando la modifica è su disco, l'attesa avviene fuori dal lock del progetto
+				this.journal.commit(seq);
 				answer = "< Progetto " + project.getProjectName() + " rimosso";
 				project.sendMessage("close");
-				
-				//recupero l'indirizzo IP del progetto in modo da poterlo riutilizzare
-				this.reusableAddresses.add(project.getIP());
-				this.projects.remove(project);
-				this.deleteProjectDir(projectName, recoveryDir);
+				this.releaseProject(project);
 			}
 			else answer = "< Impossibile eliminare il progetto " + projectName + ": progetto non terminato";
 		}
 		else answer = "< chiamante non appartiene al progetto";
-		clientChannel.register(sel, SelectionKey.OP_WRITE, answer);
+		return answer;
 		
 	}
 	
 	
-	// ---------------------------------- METODI PER LA CREAZIONE .JSON ---------------------------------- //
-	
-	/**
-	 * permette di creare una cartella con il medesimo nome del progetto specificato
-	 * 
-	 * @param projectName: nome del progetto
-	 */
-	private void createDirProject(String projectName) {
-		String path =  "." + File.separator + "recoveryDir" + File.separator + projectName;
-		File projectDir = new File(path);
-		if(projectDir.mkdir()) System.out.println("server WORTH: Directory " + projectName + " creata correttamente");
-		else System.out.println("server WORTH: Impossibile creare la direcotory " + projectName);
-		return;
-	}
-	
 	/**
-	 * permette di cercare un determinato file all'interno di una cartella
+	 * permette di liberare le risorse di un progetto già rimosso dalla lista dei progetti del server, la sua cartella
+	 * viene eliminata dal thread che scrive lo stato
 	 * 
-	 * @param fileName: nome del file da cercare
-	 * @param dir: cartella nella quale si vuole cercare il file
-	 * @return File cercato se la ricerca a successo, null altrimenti
+	 * @param project: progetto rimosso
 	 */
-	private File searchFile(String fileName, File dir) {
-		File[] projects = dir.listFiles();
-		for(int i = 0; i < projects.length; i++) {
-			if(projects[i].getName().equals(fileName)) return projects[i];
+	private void releaseProject(Project project) {
+		//il progetto non compare più tra i progetti dei suoi membri
+		for(String member : project.getMembers()) {
+			User user = this.searchUser(member);
+			if(user != null) user.removeProject(project);
 		}
-		return null;
+		
+		//recupero l'indirizzo IP del progetto in modo da poterlo riutilizzare
+		this.releaseIP(project.getIP());
 	}
 	
+	
+	// ---------------------------------- METODI DI RECUPERO DAL JOURNAL ---------------------------------- //
+	
 	/**
-	 * permette la cancellazione di una cartella dal FileSystem
+	 * permette di riapplicare allo stato del server una modifica letta dal journal. I record sono idempotenti: una
+	 * modifica già presente nello stato recuperato dai file della cartella di recovery (progetto o carta già esistente, membro già presente,
+	 * carta con numero di sequenza uguale o successivo) non viene applicata di nuovo. Le modifiche applicate vengono
+	 * segnalate al thread che scrive lo stato
 	 * 
-	 * @param projectName: nome della cartella associata al progetto
-	 * @param recoveryDir: cartella di backUp nella quale cercare la cartella associata al progetto
+	 * @param record: record letto dal journal
 	 */
-	private void  deleteProjectDir(String projectName, File recoveryDir) {
-		
-		//cerco la direcotory del progetto
-		File projectFile = this.searchFile(projectName, recoveryDir);
-		
-		//elimino tutti i file della direcotory
-		String[] files = projectFile.list();
-		for(String file : files) {
-			File currentFile = new File(projectFile.getPath(),file);
-		    currentFile.delete();
+	private void applyRecord(Journal.Record record) {
+		Project project;
+		switch(record.getType()) {
+		case Journal.REGISTER_USER:
+			User user = new User(record.getField(0), record.getField(1), UserState.Offline);
+			if(this.users.register(user)) this.stateWriter.markUser(user);
+			break;
+			
+		case Journal.CREATE_PROJECT:
+			if(this.searchProject(record.getField(0)) != null) break;
+			project = new Project(record.getField(0));
+			if(!record.getField(2).isEmpty()) project.setWorkflow(Workflow.parse(record.getField(2)));
+			project.setIP(this.generateIP());
+			project.setPort(UDPport);
+			this.projects.add(project);
+			User admin = this.searchUser(record.getField(1));
+			if(admin != null && project.addMember(admin)) admin.addProject(project);
+			this.stateWriter.markProject(project);
+			break;
+			
+		case Journal.ADD_MEMBER:
+			project = this.searchProject(record.getField(0));
+			User member = this.searchUser(record.getField(1));
+			if(project != null && member != null && project.addMember(member)) {
+				member.addProject(project);
+				this.stateWriter.markProject(project);
+			}
+			break;
+			
+		case Journal.ADD_CARD:
+			project = this.searchProject(record.getField(0));
+			//una carta con un nome riservato sostituirebbe il file dei membri o del workflow
+			if(project == null || StateWriter.isReservedName(record.getField(1))) break;
+			Card newCard = new Card(record.getField(1), record.getField(2));
+			if(project.addCardToProject(newCard, record.getTime())) {
+				newCard.setSeq(record.getSeq());
+				this.stateWriter.markCard(project, newCard);
+			}
+			break;
+			
+		case Journal.MOVE_CARD:
+			project = this.searchProject(record.getField(0));
+			if(project == null) break;
+			Card card = project.searchCardInProject(record.getField(1));
+			if(card == null || card.getSeq() >= record.getSeq()) break;
+			if(project.moveCard(record.getField(1), record.getField(2), record.getField(3), record.getTime()) != null) {
+				card.setSeq(record.getSeq());
+				this.stateWriter.markCard(project, card);
+			}
+			break;
+			
+		case Journal.DELETE_PROJECT:
+			project = this.searchProject(record.getField(0));
+			if(project != null && this.projects.remove(project)) {
+				this.stateWriter.markDeleted(project);
+				this.releaseProject(project);
+			}
+			break;
+			
+		default:
+			System.out.println("Server WORTH: record del journal di tipo sconosciuto " + record.getType());
 		}
-		
-		//elimino la direcotory
-		if(projectFile.delete()) {
-			System.out.println("server WORTH: Directory " + projectName + " eliminata correttamente");
-		}else System.out.println("server WORTH: Impossibile eliminare la direcotory " + projectName);
-		return;
 	}
 	
-	/**
-	 * permette la creazione di un file contenente i nomi dei membri di un progetto
-	 * 
-	 * @param project: progetto dal quale si vogliono estrarre i nomi dei membri
-	 * @throws IOException
-	 */
-	private void createMembersFile(Project project) throws IOException {
-		ObjectMapper mapper = new ObjectMapper();
-		String path = "." + File.separator + "recoveryDir" + File.separator + project.getProjectName() + File.separator + "projectMembers.json";
-		File file = new File(path); 
-		if(!file.exists()) file.createNewFile();
-		mapper.writeValue(file, project.getMembers());
-		return;
-	}
 	
-	/**
-	 * permette di creare un file associato ad una carta di un progetto
-	 * 
-	 * @param projectName: nome del progetto
-	 * @param card: carta della quale si vogliono salvare le informazioni
-	 * @throws IOException
-	 */
-	private void createCardFile(String projectName, Card card) throws IOException {
-		ObjectMapper mapper = new ObjectMapper();
-		String path = "." + File.separator + "recoveryDir" + File.separator + projectName + File.separator + card.getCardName() + ".json";
-		File file = new File(path); 
-		mapper.writeValue(file, card);
-		return;
-	}
+	// ---------------------------------- METODI PER LA GESTIONE DEI FILE ---------------------------------- //
 	
 	/**
-	 * permette la lettura all'interno della cartella di backUp
+	 * permette la lettura all'interno della cartella di backUp, i file vengono letti nel formato configurato
 	 * 
 	 * @param recoveryDir: caretella di backUp
+	 * @throws IOException se un file non può essere letto, lo stato recuperato sarebbe incompleto
 	 */
-	private void readerFromJson(File recoveryDir) {
+	private void readRecoveryDir(File recoveryDir) throws IOException {
 		
-		String registeredUserFilePath = "." + File.separator + "recoveryDir" + File.separator + "registeredUsers.json";
-		File registeredUserFile = new File(registeredUserFilePath);
+		StorageCodec codec = this.storage.getCodec();
+		File registeredUserFile = new File(recoveryDir, StateWriter.USERS_FILE + codec.getExtension());
 		
 		//se ancora non si è registrato nessun utente il server non necessita di salvare nessun dato
-		if(!registeredUserFile.exists()) return;
+		if(!registeredUserFile.exists()) {
+			//una cartella scritta in un altro formato va convertita prima dell'avvio
+			for(StorageFormat format : StorageFormat.values()) {
+				if(new File(recoveryDir, StateWriter.USERS_FILE + format.getCodec().getExtension()).exists()) 
+					System.out.println("Server WORTH: la cartella di recovery è nel formato " + format + ", convertirla con StorageConverter " + recoveryDir.getPath() + " " + this.storage);
+			}
+			return;
+		}
 		
-		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_DIMENSION);
-		ObjectMapper objectMapper = new ObjectMapper();
+		long start = System.currentTimeMillis();
 		
-		//apro un canale per la lettura nel file json degli utenti registrati
-		try (FileChannel inChannel = FileChannel.open(Paths.get(registeredUserFile.getPath()), StandardOpenOption.READ) ){
-			boolean stop = false;
-			while (!stop) {
-				if (inChannel.read(buffer) == -1) stop = true;
-			}
-		} catch (IOException e) {e.printStackTrace();}
-		try {
-			this.users.addAll(objectMapper.reader().forType(new TypeReference<ArrayList<User>>() {}).readValue(buffer.array()));
-			for(int i = 0; i < this.users.size(); i++) this.users.get(i).setState("Offline");
-		}catch (IOException e){e.printStackTrace();}
+		//gli utenti vengono letti in streaming e registrati uno alla volta, il file non viene mai caricato per intero in memoria
+		this.readUsers(registeredUserFile, codec);
+		System.out.println("Server WORTH: recupero utenti completato in " + (System.currentTimeMillis() - start) + " ms (" + this.users.size() + " utenti)");
 		
-		File[] files = recoveryDir.listFiles();
-		//scorro i file nella directory di recovery
-		for(File dir : files) {
+		//ogni progetto viene ricostruito dalla sua cartella da un task indipendente, in parallelo con gli altri
+		start = System.currentTimeMillis();
+		LongAdder files = new LongAdder();
+		LongAdder bytes = new LongAdder();
+		ArrayList<ProjectLoader> tasks = new ArrayList<ProjectLoader>();
+		for(File dir : recoveryDir.listFiles()) {
 			//se il file è una directory allora conterrà le informazioni del progetto con il medesimo nome
-			if(dir.isDirectory()) {
-				//creo il nuovo progetto e lo aggiungo alla lista dei progetti mantenuta dal server
-				Project project = new Project(dir.getName());
+			if(dir.isDirectory()) tasks.add(new ProjectLoader(dir, codec, files, bytes));
+		}
+		ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		try {
+			for(ProjectLoader task : tasks) pool.execute(task);
+			ArrayList<Project> loaded = new ArrayList<Project>(tasks.size());
+			for(ProjectLoader task : tasks) {
+				try {
+					loaded.add(task.join());
+				}catch (RuntimeException e) {throw new IOException("impossibile recuperare il progetto " + task.getDir().getName(), e);}
+			}
+			long elapsed = System.currentTimeMillis() - start;
+			System.out.println("Server WORTH: lettura di " + loaded.size() + " progetti completata in " + elapsed + " ms (" + files.sum() + " file, " 
+					+ bytes.sum() / 1024 + " KB, " + (bytes.sum() / 1024) * 1000 / Math.max(elapsed, 1) + " KB/s)");
+			
+			//i progetti letti vengono inseriti tra quelli del server da un solo thread, nell'ordine delle cartelle
+			start = System.currentTimeMillis();
+			for(Project project : loaded) {
 				project.setIP(this.generateIP());
 				project.setPort(UDPport);
 				this.projects.add(project);
 				
-				//recupero i file conteneti all'interno della direcotory del progetto
-				File[] dirFiles = dir.listFiles();
-				//scorro i file nella directory del progetto
-				for(File file : dirFiles) {
-					String dirFilePath = "." + File.separator + "recoveryDir" + File.separator + dir.getName() + File.separator +file.getName();
-					File dirFile = new File(dirFilePath); 
-					//apro un canale per la lettura del file
-					try (FileChannel inChannel = FileChannel.open(Paths.get(dirFile.getPath()), StandardOpenOption.READ) ){
-						boolean stop = false;
-						buffer.clear();
-						while (!stop) {
-							if (inChannel.read(buffer) == -1) stop = true;
-						}
-					} catch (IOException e) {e.printStackTrace();}
-					try {
-						//se il file è projectMembers.json
-						if(file.getName().equals("projectMembers.json")) {
-							project.setMembers(objectMapper.reader().forType(new TypeReference<ArrayList<String>>() {}).readValue(buffer.array()));
-						}
-						//se è un file riferito ad una carta
-						else {
-							Card newCard = objectMapper.readValue(file, Card.class);
-							//aggiungo la carta all'interno dell'ultima lista presente nella storia
-							project.addCardToList(newCard.getStory().get(newCard.getStory().size()-1), newCard);
-						}
-					}catch (IOException e) {e.printStackTrace();}
+				//ricostruisco l'indice dei progetti dei membri
+				for(String member : project.getMembers()) {
+					User user = this.searchUser(member);
+					if(user != null) user.addProject(project);
 				}
 			}
+			elapsed = System.currentTimeMillis() - start;
+			System.out.println("Server WORTH: inserimento di " + loaded.size() + " progetti completato in " + elapsed + " ms (" 
+					+ loaded.size() * 1000L / Math.max(elapsed, 1) + " progetti/s)");
+		}finally {
+			pool.shutdown();
+		}
+	}
+	
+	/**
+	 * permette di leggere il file degli utenti registrati senza caricarlo per intero in memoria: il codec legge il
+	 * file a blocchi attraverso un canale e ogni utente viene registrato appena decodificato, la memoria occupata
+	 * non dipende dal numero di utenti. Un utente accodato in modo incompleto da una scrittura interrotta viene
+	 * eliminato dal file, la sua registrazione è ancora nel journal
+	 * 
+	 * @param file: file degli utenti registrati
+	 * @param codec: formato del file
+	 * @throws IOException se il file non può essere letto o non è nel formato atteso
+	 */
+	private void readUsers(File file, StorageCodec codec) throws IOException {
+		//il codec chiude il canale al termine della lettura
+		long valid = codec.decodeUsers(Channels.newInputStream(FileChannel.open(file.toPath(), StandardOpenOption.READ)), this.users::register);
+		if(valid < file.length()) {
+			System.out.println("Server WORTH: eliminati " + (file.length() - valid) + " byte incompleti in coda al file " + file.getName());
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+				channel.truncate(valid);
+				channel.force(true);
+			}
 		}
 	}
 }
@@ -0,0 +1,67 @@
+package progetto_2020_2021;
+
+import java.net.InetAddress;
+
+/**
+ * Session modella l'autenticazione di un utente su una connessione: viene creata al login, associata alla connessione
+ * e permette di conoscere l'utente richiedente senza doverlo cercare ad ogni richiesta
+ *
+ * @author Antonio Guzzi
+ */
+public class Session {
+
+	private final User user;
+	private final InetAddress IP;
+	private final int port;
+
+	// ---------------------------------- METODO COSTRUTTORE ---------------------------------- //
+
+	/**
+	 * @param user: utente autenticato
+	 * @param IP: indirizzo IP da cui l'utente ha effettuato il login
+	 * @param port: porta da cui l'utente ha effettuato il login
+	 * @throws IllegalArgumentException se l'utente o l'indirizzo sono nulli
+	 */
+	public Session(User user, InetAddress IP, int port) throws IllegalArgumentException {
+		if(user == null) throw new IllegalArgumentException("user null");
+		if(IP == null) throw new IllegalArgumentException("IP null");
+		this.user = user;
+		this.IP = IP;
+		this.port = port;
+	}
+
+	// ---------------------------------- METODI GET ---------------------------------- //
+
+	/**
+	 * @return utente autenticato
+	 */
+	public User getUser() {
+		return this.user;
+	}
+
+	/**
+	 * @return indirizzo IP da cui l'utente ha effettuato il login
+	 */
+	public InetAddress getIP() {
+		return this.IP;
+	}
+
+	/**
+	 * @return porta da cui l'utente ha effettuato il login
+	 */
+	public int getPort() {
+		return this.port;
+	}
+
+	// ---------------------------------- METODI DI APPOGGIO ---------------------------------- //
+
+	/**
+	 * permette di sapere se la sessione è ancora quella con cui l'utente risulta collegato: se l'utente ha effettuato
+	 * il login da un'altra connessione la sessione non è più attuale
+	 *
+	 * @return true se l'utente risulta Online da questa sessione, false altrimenti
+	 */
+	public boolean isCurrent() {
+		return this.user.getState() == UserState.Online && this.IP.equals(this.user.getIp()) && this.port == this.user.getPort();
+	}
+}
@@ -0,0 +1,394 @@
+package progetto_2020_2021;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * StateWriter mantiene aggiornati, con un thread dedicato, i file della cartella di recovery (utenti registrati,
+ * membri, workflow e carte di ogni progetto) che al riavvio fanno da snapshot dello stato. Chi gestisce le richieste
+ * segnala soltanto cosa è cambiato: le segnalazioni vengono raccolte per un intervallo e ogni file viene scritto una
+ * sola volta per intervallo, anche se la carta o il progetto sono stati modificati più volte.
+ * Periodicamente, o quando il journal diventa troppo grande, viene fatto un checkpoint: il segmento corrente del
+ * journal viene chiuso, vengono scritti i file segnalati fino a quel momento e i segmenti chiusi vengono eliminati.
+ * Le segnalazioni avvengono prima di accodare il record al journal, quindi ogni record di un segmento chiuso ha già
+ * segnalato il file che modifica; le modifiche successive che finiscono nei file vengono riapplicate senza effetto
+ * al riavvio, dato che i record sono idempotenti.
+ * Il file degli utenti non viene riscritto: i nuovi utenti vengono accodati, quindi il costo di una registrazione
+ * non dipende dal numero di utenti. Quando gli utenti accodati diventano molti rispetto a quelli del file, il file
+ * viene compattato riscrivendolo per intero
+ *
+ * @author Antonio Guzzi
+ */
+public class StateWriter implements Runnable {
+
+	//nomi dei file senza l'estensione, che dipende dal formato
+	public static final String USERS_FILE = "registeredUsers";
+	public static final String MEMBERS_FILE = "projectMembers";
+	//file con la specifica del workflow personalizzato di un progetto, assente per il workflow di default
+	public static final String WORKFLOW_FILE = "projectWorkflow";
+	public static final String TMP_SUFFIX = ".tmp";
+
+	private static final String CHECKPOINT_METRIC = "stato.checkpointMs";
+	private static final String FILES_METRIC = "stato.fileScrittiPerIntervallo";
+	private static final String COALESCED_METRIC = "stato.segnalazioniAccorpate";
+	private static final String COMPACTION_METRIC = "stato.compattazioneUtentiMs";
+	//numero minimo di utenti accodati prima di compattare il file degli utenti
+	private static final int COMPACTION_MIN_USERS = 10000;
+
+	private final File recoveryDir;
+	private final Journal journal;
+	private final UserRegistry users;
+	private final List<Project> projects; //lista sincronizzata dei progetti del server
+	private final long window; //intervallo in cui le segnalazioni vengono raccolte prima di scrivere i file
+	private final long period; //intervallo massimo tra due checkpoint se ci sono nuove modifiche
+	private final long journalDimension; //dimensione del segmento corrente oltre la quale il checkpoint viene anticipato
+	private final StorageCodec codec; //formato dei file
+
+	//segnalazioni raccolte nell'intervallo corrente, protette da dirtyLock
+	private final Object dirtyLock;
+	private LinkedHashMap<Project, Dirty> dirtyProjects; //progetti modificati in ordine di prima segnalazione
+	private ArrayList<User> newUsers; //utenti registrati da accodare al file degli utenti
+	private LinkedHashSet<String> deletedProjects; //nomi dei progetti eliminati di cui cancellare la cartella
+	private int marks; //segnalazioni ricevute nell'intervallo
+
+	private long appendedUsers; //utenti accodati al file degli utenti dall'ultima compattazione
+	private long lastCheckpoint; //istante dell'ultimo checkpoint
+	private long lastCheckpointSeq; //numero di sequenza contenuto nell'ultimo checkpoint
+
+	// ---------------------------------- METODO COSTRUTTORE ---------------------------------- //
+
+	/**
+	 * @param recoveryDir: cartella in cui scrivere i file dello stato
+	 * @param codec: formato dei file
+	 * @param journal: journal delle modifiche
+	 * @param users: utenti registrati
+	 * @param projects: lista sincronizzata dei progetti del server
+	 * @param window: intervallo in millisecondi in cui le segnalazioni vengono raccolte
+	 * @param period: intervallo massimo in millisecondi tra due checkpoint
+	 * @param journalDimension: dimensione in byte del journal oltre la quale viene fatto un checkpoint
+	 * @throws IllegalArgumentException se uno dei parametri è nullo o non positivo
+	 */
+	public StateWriter(File recoveryDir, StorageCodec codec, Journal journal, UserRegistry users, List<Project> projects, long window, long period, long journalDimension) throws IllegalArgumentException {
+		if(recoveryDir == null) throw new IllegalArgumentException("recoveryDir null");
+		if(codec == null) throw new IllegalArgumentException("codec null");
+		if(journal == null) throw new IllegalArgumentException("journal null");
+		if(users == null) throw new IllegalArgumentException("users null");
+		if(projects == null) throw new IllegalArgumentException("projects null");
+		if(window <= 0) throw new IllegalArgumentException("window non positiva");
+		if(period <= 0) throw new IllegalArgumentException("period non positivo");
+		if(journalDimension <= 0) throw new IllegalArgumentException("journalDimension non positiva");
+		this.recoveryDir = recoveryDir;
+		this.journal = journal;
+		this.users = users;
+		this.projects = projects;
+		this.window = window;
+		this.period = period;
+		this.journalDimension = journalDimension;
+		this.codec = codec;
+		this.dirtyLock = new Object();
+		this.dirtyProjects = new LinkedHashMap<Project, Dirty>();
+		this.newUsers = new ArrayList<User>();
+		this.deletedProjects = new LinkedHashSet<String>();
+		this.marks = 0;
+		this.appendedUsers = 0;
+		this.lastCheckpoint = System.currentTimeMillis();
+		this.lastCheckpointSeq = 0;
+	}
+
+	/**
+	 * i file delle carte hanno il nome della carta, nella stessa cartella dei file dei membri e del workflow
+	 *
+	 * @param cardName: nome di una carta
+	 * @return true se una carta con questo nome sostituirebbe il file dei membri o quello del workflow
+	 */
+	public static boolean isReservedName(String cardName) {
+		return cardName.equals(MEMBERS_FILE) || cardName.equals(WORKFLOW_FILE);
+	}
+
+	// ---------------------------------- METODI DI SEGNALAZIONE ---------------------------------- //
+
+	/**
+	 * permette di segnalare la registrazione di un nuovo utente
+	 *
+	 * @param user: utente registrato
+	 */
+	public void markUser(User user) {
+		synchronized(this.dirtyLock) {
+			this.newUsers.add(user);
+			this.marks++;
+		}
+	}
+
+	/**
+	 * permette di segnalare che i membri o il workflow di un progetto sono cambiati
+	 *
+	 * @param project: progetto modificato
+	 */
+	public void markProject(Project project) {
+		synchronized(this.dirtyLock) {
+			this.dirty(project).members = true;
+			this.marks++;
+		}
+	}
+
+	/**
+	 * permette di segnalare che una carta di un progetto è cambiata
+	 *
+	 * @param project: progetto della carta
+	 * @param card: carta modificata
+	 */
+	public void markCard(Project project, Card card) {
+		synchronized(this.dirtyLock) {
+			this.dirty(project).cards.add(card);
+			this.marks++;
+		}
+	}
+
+	/**
+	 * permette di segnalare che un progetto è stato eliminato, la sua cartella verrà cancellata. Sono cancellate solo
+	 * le cartelle dei progetti segnalati: una cartella che non è stato possibile leggere all'avvio non viene mai toccata
+	 *
+	 * @param project: progetto eliminato
+	 */
+	public void markDeleted(Project project) {
+		synchronized(this.dirtyLock) {
+			this.deletedProjects.add(project.getProjectName());
+			this.marks++;
+		}
+	}
+
+	// ---------------------------------- METODI DI APPOGGIO ---------------------------------- //
+
+	@Override
+	public void run() {
+		while(true) {
+			try {
+				Thread.sleep(this.window);
+			}catch (InterruptedException e) {return;}
+
+			try {
+				boolean expired = System.currentTimeMillis() - this.lastCheckpoint >= this.period && this.journal.getLastSeq() > this.lastCheckpointSeq;
+				if(expired || this.journal.size() >= this.journalDimension) this.checkpoint();
+				else this.flush();
+			}catch (IOException e) {e.printStackTrace();}
+		}
+	}
+
+	/**
+	 * permette di scrivere i file segnalati e di eliminare i segmenti del journal che contengono solo modifiche già
+	 * presenti nei file
+	 *
+	 * @return numero di sequenza fino al quale le modifiche sono contenute nei file
+	 * @throws IOException se i file non possono essere scritti, in tal caso il journal non viene troncato
+	 */
+	public synchronized long checkpoint() throws IOException {
+		long start = System.currentTimeMillis();
+		long seq = this.journal.rotate();
+		int files = this.flush();
+
+		int segments = this.journal.truncate(seq);
+		long elapsed = System.currentTimeMillis() - start;
+		this.lastCheckpoint = System.currentTimeMillis();
+		this.lastCheckpointSeq = seq;
+		Metrics.record(CHECKPOINT_METRIC, elapsed);
+		System.out.println("Server WORTH: checkpoint fino al record " + seq + " completato in " + elapsed + " ms (" + files + " file scritti, " + segments + " segmenti del journal eliminati)");
+		return seq;
+	}
+
+	/**
+	 * permette di scrivere i file segnalati dall'ultima scrittura, ognuno una sola volta
+	 *
+	 * @return numero di file scritti o eliminati
+	 * @throws IOException
+	 */
+	public synchronized int flush() throws IOException {
+		LinkedHashMap<Project, Dirty> projects;
+		ArrayList<User> users;
+		LinkedHashSet<String> deleted;
+		int received;
+		synchronized(this.dirtyLock) {
+			projects = this.dirtyProjects;
+			users = this.newUsers;
+			deleted = this.deletedProjects;
+			received = this.marks;
+			this.dirtyProjects = new LinkedHashMap<Project, Dirty>();
+			this.newUsers = new ArrayList<User>();
+			this.deletedProjects = new LinkedHashSet<String>();
+			this.marks = 0;
+		}
+		if(received == 0) return 0;
+
+		int files = 0;
+		try {
+			if(!users.isEmpty()) {
+				this.writeUsers(users);
+				files++;
+			}
+			//le cartelle vengono cancellate prima di scrivere i progetti: un progetto ricreato con lo stesso nome
+			//dopo l'eliminazione ha tutti i file segnalati e la sua cartella viene riscritta per intero
+			for(String name : deleted) {
+				deleteDir(new File(this.recoveryDir, name));
+				files++;
+			}
+			for(Map.Entry<Project, Dirty> entry : projects.entrySet()) {
+				files += this.writeProject(entry.getKey(), entry.getValue());
+			}
+		}catch (IOException e) {
+			//le segnalazioni non scritte vengono ripristinate per il prossimo intervallo
+			synchronized(this.dirtyLock) {
+				//un utente già accodato può esserlo di nuovo, i duplicati vengono ignorati alla lettura
+				this.newUsers.addAll(0, users);
+				this.deletedProjects.addAll(deleted);
+				for(Map.Entry<Project, Dirty> entry : projects.entrySet()) {
+					Dirty dirty = this.dirty(entry.getKey());
+					dirty.members |= entry.getValue().members;
+					dirty.cards.addAll(entry.getValue().cards);
+				}
+				this.marks += received;
+			}
+			throw e;
+		}
+
+		Metrics.record(FILES_METRIC, files);
+		Metrics.record(COALESCED_METRIC, received - files);
+		return files;
+	}
+
+	/**
+	 * permette di accodare al file degli utenti quelli registrati nell'intervallo, con un'unica scrittura seguita da una
+	 * sincronizzazione su disco. Il file viene invece riscritto per intero, in modo atomico, se non esiste ancora o se
+	 * gli utenti accodati dall'ultima compattazione sono almeno la metà di quelli registrati
+	 *
+	 * @param registered: utenti registrati nell'intervallo
+	 * @throws IOException
+	 */
+	private void writeUsers(List<User> registered) throws IOException {
+		File file = new File(this.recoveryDir, USERS_FILE + this.codec.getExtension());
+		if(!file.exists() || this.appendedUsers + registered.size() >= Math.max(COMPACTION_MIN_USERS, this.users.size() / 2)) {
+			long start = System.currentTimeMillis();
+			//gli utenti vengono solo aggiunti, la copia contiene almeno quelli segnalati
+			write(file, this.codec.encodeUsers(this.users.snapshot()));
+			this.appendedUsers = 0;
+			Metrics.record(COMPACTION_METRIC, System.currentTimeMillis() - start);
+			return;
+		}
+
+		ByteArrayOutputStream records = new ByteArrayOutputStream(registered.size() * 64);
+		for(User user : registered) records.write(this.codec.encodeUser(user));
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+			ByteBuffer buffer = ByteBuffer.wrap(records.toByteArray());
+			while(buffer.hasRemaining()) channel.write(buffer);
+			channel.force(false);
+		}
+		this.appendedUsers += registered.size();
+	}
+
+	/**
+	 * @param project: progetto modificato
+	 * @return le segnalazioni del progetto nell'intervallo corrente, va invocato con dirtyLock
+	 */
+	private Dirty dirty(Project project) {
+		Dirty dirty = this.dirtyProjects.get(project);
+		if(dirty == null) {
+			dirty = new Dirty();
+			this.dirtyProjects.put(project, dirty);
+		}
+		return dirty;
+	}
+
+	/**
+	 * permette di scrivere i file segnalati di un progetto
+	 *
+	 * @param project: progetto da scrivere
+	 * @param dirty: segnalazioni del progetto
+	 * @return numero di file scritti o eliminati
+	 * @throws IOException
+	 */
+	private int writeProject(Project project, Dirty dirty) throws IOException {
+		File dir = new File(this.recoveryDir, project.getProjectName());
+		//una richiesta che ha trovato il progetto prima della sua eliminazione può averlo modificato dopo
+		if(!this.projects.contains(project)) return 0;
+		if(!dir.exists() && !dir.mkdir()) throw new IOException("impossibile creare la cartella " + dir.getPath());
+
+		//il contenuto viene serializzato sotto il lock del progetto, con cui chi gestisce le richieste applica la modifica,
+		//la segnala e assegna il numero di sequenza alla carta: storia e numero di sequenza sono sempre coerenti.
+		//La scrittura su disco avviene fuori dal lock
+		byte[] members = null;
+		String spec = null;
+		ArrayList<byte[]> cards = new ArrayList<byte[]>(dirty.cards.size());
+		synchronized(project) {
+			if(dirty.members) {
+				members = this.codec.encodeMembers(project.getMembers());
+				spec = project.getWorkflow() == Workflow.DEFAULT ? null : project.getWorkflow().getSpec();
+			}
+			for(Card card : dirty.cards) cards.add(this.codec.encodeCard(card));
+		}
+
+		int files = 0;
+		if(members != null) {
+			write(new File(dir, MEMBERS_FILE + this.codec.getExtension()), members);
+			File workflowFile = new File(dir, WORKFLOW_FILE + this.codec.getExtension());
+			if(spec != null) write(workflowFile, this.codec.encodeWorkflow(spec));
+			else workflowFile.delete();
+			files++;
+		}
+		int i = 0;
+		for(Card card : dirty.cards) {
+			write(new File(dir, card.getCardName() + this.codec.getExtension()), cards.get(i++));
+			files++;
+		}
+		return files;
+	}
+
+	/**
+	 * permette di sostituire un file in modo atomico: il contenuto viene scritto e forzato su disco in un file
+	 * temporaneo che poi prende il posto del file, un crash lascia sempre la versione precedente o quella nuova
+	 *
+	 * @param file: file da scrivere
+	 * @param content: contenuto del file
+	 * @throws IOException
+	 */
+	public static void write(File file, byte[] content) throws IOException {
+		File tmp = new File(file.getPath() + TMP_SUFFIX);
+		try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = ByteBuffer.wrap(content);
+			while(buffer.hasRemaining()) channel.write(buffer);
+			channel.force(true);
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * permette di eliminare una cartella e i file che contiene
+	 *
+	 * @param dir: cartella da eliminare
+	 */
+	private static void deleteDir(File dir) {
+		File[] files = dir.listFiles();
+		if(files == null) return;
+		for(File file : files) file.delete();
+		if(dir.delete()) System.out.println("server WORTH: Directory " + dir.getName() + " eliminata correttamente");
+		else System.out.println("server WORTH: Impossibile eliminare la direcotory " + dir.getName());
+	}
+
+	// ---------------------------------- CLASSI DI APPOGGIO ---------------------------------- //
+
+	/**
+	 * file di un progetto da scrivere
+	 */
+	private static class Dirty {
+		private boolean members; //membri e workflow
+		private final LinkedHashSet<Card> cards = new LinkedHashSet<Card>();
+	}
+}
@@ -0,0 +1,92 @@
+package progetto_2020_2021;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * StorageCodec definisce il formato con cui lo stato del server viene salvato nella cartella di recovery: utenti
+ * registrati, membri, workflow e carte dei progetti. Le implementazioni sono thread-safe e costruiscono una sola volta
+ * gli oggetti necessari alla codifica, in modo da poter essere usate contemporaneamente dal thread che scrive lo stato
+ * e dai task di recupero
+ *
+ * @author Antonio Guzzi
+ */
+public interface StorageCodec {
+
+	/**
+	 * @return estensione dei file scritti nel formato, compreso il punto
+	 */
+	String getExtension();
+
+	/**
+	 * @param users: utenti registrati
+	 * @return contenuto compattato del file degli utenti registrati, a cui possono essere accodati i record di encodeUser
+	 * @throws IOException
+	 */
+	byte[] encodeUsers(Collection<User> users) throws IOException;
+
+	/**
+	 * @param user: utente appena registrato
+	 * @return record da accodare al file degli utenti registrati
+	 * @throws IOException
+	 */
+	byte[] encodeUser(User user) throws IOException;
+
+	/**
+	 * permette di leggere il file degli utenti registrati senza caricarlo per intero in memoria, ogni utente viene
+	 * passato a consumer appena decodificato. Un record accodato in modo incompleto alla fine del file, scrittura
+	 * interrotta da un crash, viene ignorato
+	 *
+	 * @param in: contenuto del file degli utenti
+	 * @param consumer: riceve gli utenti nell'ordine del file
+	 * @return numero di byte del file occupati da record completi
+	 * @throws IOException se il contenuto non può essere letto o non è nel formato atteso
+	 */
+	long decodeUsers(InputStream in, Consumer<User> consumer) throws IOException;
+
+	/**
+	 * @param members: nomi dei membri di un progetto
+	 * @return contenuto del file dei membri
+	 * @throws IOException
+	 */
+	byte[] encodeMembers(List<String> members) throws IOException;
+
+	/**
+	 * @param in: contenuto del file dei membri
+	 * @return nomi dei membri nell'ordine del file
+	 * @throws IOException se il contenuto non può essere letto o non è nel formato atteso
+	 */
+	ArrayList<String> decodeMembers(InputStream in) throws IOException;
+
+	/**
+	 * @param spec: specifica del workflow personalizzato di un progetto
+	 * @return contenuto del file del workflow
+	 * @throws IOException
+	 */
+	byte[] encodeWorkflow(String spec) throws IOException;
+
+	/**
+	 * @param content: contenuto del file del workflow
+	 * @return specifica del workflow
+	 * @throws IOException se il contenuto non è nel formato atteso
+	 */
+	String decodeWorkflow(byte[] content) throws IOException;
+
+	/**
+	 * @param card: carta da salvare, va invocato con il lock del progetto della carta
+	 * @return contenuto del file della carta
+	 * @throws IOException
+	 */
+	byte[] encodeCard(Card card) throws IOException;
+
+	/**
+	 * @param content: contenuto del file della carta
+	 * @return carta decodificata, da inserire nel progetto con Project.restoreCard
+	 * @throws IOException se il contenuto non è nel formato atteso
+	 */
+	Card decodeCard(byte[] content) throws IOException;
+}
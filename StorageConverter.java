@@ -0,0 +1,136 @@
+package progetto_2020_2021;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * StorageConverter converte la cartella di recovery di WORTH nel formato indicato, va eseguito a server spento:
+ * java progetto_2020_2021.StorageConverter <cartella> <formato di destinazione>
+ * Vengono convertiti tutti i file scritti negli altri formati. Ogni file viene scritto nel nuovo formato in modo
+ * atomico e solo dopo il file originale viene eliminato; il file degli utenti, da cui il server riconosce il formato
+ * della cartella, viene convertito per ultimo, così una conversione interrotta viene completata eseguendola di nuovo.
+ * Il journal non dipende dal formato e non viene modificato
+ *
+ * @author Antonio Guzzi
+ */
+public class StorageConverter {
+
+	private final File recoveryDir;
+	private final StorageCodec target;
+	private int converted; //file convertiti
+
+	// ---------------------------------- METODO COSTRUTTORE ---------------------------------- //
+
+	/**
+	 * @param recoveryDir: cartella di recovery da convertire
+	 * @param target: formato di destinazione
+	 * @throws IllegalArgumentException se uno dei parametri è nullo
+	 */
+	public StorageConverter(File recoveryDir, StorageFormat target) throws IllegalArgumentException {
+		if(recoveryDir == null) throw new IllegalArgumentException("recoveryDir null");
+		if(target == null) throw new IllegalArgumentException("target null");
+		this.recoveryDir = recoveryDir;
+		this.target = target.getCodec();
+		this.converted = 0;
+	}
+
+	public static void main(String[] args) {
+		if(args.length != 2) {
+			System.out.println("uso: java progetto_2020_2021.StorageConverter <cartella di recovery> <JSON|BINARY>");
+			return;
+		}
+		File dir = new File(args[0]);
+		if(!dir.isDirectory()) {
+			System.out.println("StorageConverter: " + args[0] + " non è una cartella");
+			return;
+		}
+		StorageFormat target = StorageFormat.valueOf(args[1].toUpperCase());
+
+		long start = System.currentTimeMillis();
+		try {
+			int files = new StorageConverter(dir, target).convert();
+			System.out.println("StorageConverter: " + files + " file convertiti nel formato " + target + " in " + (System.currentTimeMillis() - start) + " ms");
+		}catch (IOException e) {
+			e.printStackTrace();
+			System.out.println("StorageConverter: conversione interrotta, eseguirla di nuovo per completarla");
+		}
+	}
+
+	// ---------------------------------- METODI DI APPOGGIO ---------------------------------- //
+
+	/**
+	 * permette di convertire nel formato di destinazione i file scritti negli altri formati
+	 *
+	 * @return numero di file convertiti
+	 * @throws IOException se un file non può essere letto o scritto, i file già convertiti restano nel nuovo formato
+	 */
+	public int convert() throws IOException {
+		for(StorageFormat format : StorageFormat.values()) {
+			StorageCodec source = format.getCodec();
+			if(source.getExtension().equals(this.target.getExtension())) continue;
+
+			File[] dirs = this.recoveryDir.listFiles();
+			if(dirs == null) throw new IOException("impossibile leggere la cartella " + this.recoveryDir.getPath());
+			for(File dir : dirs) {
+				if(dir.isDirectory()) this.convertProject(dir, source);
+			}
+
+			File users = new File(this.recoveryDir, StateWriter.USERS_FILE + source.getExtension());
+			if(users.exists()) {
+				ArrayList<User> registered = new ArrayList<User>();
+				source.decodeUsers(Channels.newInputStream(FileChannel.open(users.toPath(), StandardOpenOption.READ)), registered::add);
+				this.replace(users, StateWriter.USERS_FILE, this.target.encodeUsers(registered));
+			}
+		}
+		return this.converted;
+	}
+
+	/**
+	 * permette di convertire i file di un progetto
+	 *
+	 * @param dir: cartella del progetto
+	 * @param source: formato di partenza
+	 * @throws IOException
+	 */
+	private void convertProject(File dir, StorageCodec source) throws IOException {
+		String extension = source.getExtension();
+		File[] files = dir.listFiles();
+		if(files == null) throw new IOException("impossibile leggere la cartella " + dir.getPath());
+		for(File file : files) {
+			String name = file.getName();
+			//i file temporanei sono scritture interrotte e vengono ignorati come all'avvio del server
+			if(!name.endsWith(extension)) continue;
+			String baseName = name.substring(0, name.length() - extension.length());
+
+			if(baseName.equals(StateWriter.MEMBERS_FILE)) {
+				ArrayList<String> members = source.decodeMembers(Channels.newInputStream(FileChannel.open(file.toPath(), StandardOpenOption.READ)));
+				this.replace(file, baseName, this.target.encodeMembers(members));
+			}
+			else if(baseName.equals(StateWriter.WORKFLOW_FILE)) {
+				this.replace(file, baseName, this.target.encodeWorkflow(source.decodeWorkflow(Files.readAllBytes(file.toPath()))));
+			}
+			else {
+				this.replace(file, baseName, this.target.encodeCard(source.decodeCard(Files.readAllBytes(file.toPath()))));
+			}
+		}
+	}
+
+	/**
+	 * permette di scrivere un file nel formato di destinazione e di eliminare quello originale
+	 *
+	 * @param file: file originale
+	 * @param baseName: nome del file senza estensione
+	 * @param content: contenuto nel formato di destinazione
+	 * @throws IOException
+	 */
+	private void replace(File file, String baseName, byte[] content) throws IOException {
+		StateWriter.write(new File(file.getParentFile(), baseName + this.target.getExtension()), content);
+		if(!file.delete()) throw new IOException("impossibile eliminare " + file.getPath());
+		this.converted++;
+	}
+}
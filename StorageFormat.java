@@ -0,0 +1,31 @@
+package progetto_2020_2021;
+
+/**
+ * StorageFormat stabilisce il formato dei file della cartella di recovery, una cartella scritta in un formato può
+ * essere convertita nell'altro con StorageConverter
+ *
+ * @author Antonio Guzzi
+ */
+public enum StorageFormat {
+	/**
+	 * file json leggibili, formato di default
+	 */
+	JSON(new JsonCodec()),
+	/**
+	 * file binari compatti, più veloci da scrivere e da leggere
+	 */
+	BINARY(new BinaryCodec());
+
+	private final StorageCodec codec;
+
+	private StorageFormat(StorageCodec codec) {
+		this.codec = codec;
+	}
+
+	/**
+	 * @return codec con cui vengono letti e scritti i file nel formato
+	 */
+	public StorageCodec getCodec() {
+		return this.codec;
+	}
+}
@@ -1,6 +1,11 @@
 package progetto_2020_2021;
 
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 
 /**
@@ -12,12 +17,18 @@ public class User{
 	private String nickName;
 	private String psw;
 	
+	//stato, indirizzo e porta vengono modificati dai reactor del server e letti dagli altri thread
 	@JsonIgnore
-	private String state;
+	private volatile UserState state;
 	@JsonIgnore
-	private InetAddress ip;
+	private volatile InetAddress ip;
 	@JsonIgnore
-	private int port;
+	private volatile int port;
+	
+	//indice dei progetti di cui l'utente è membro, viene ricostruito dai file dei membri dei progetti. L'insieme
+	//mantiene l'ordine di inserimento, quello in cui list_projects restituisce i progetti
+	@JsonIgnore
+	private final Set<Project> projects = Collections.synchronizedSet(new LinkedHashSet<Project>());
 	
 	
 	// ---------------------------------- METODI COSTRUTTORE ---------------------------------- //
@@ -25,10 +36,10 @@ public class User{
 	/**
 	 * @param nickName: nome dell'utente
 	 * @param psw: passworod associata all'utente
-	 * @param state: stringa che esprime lo stato Online/Offline dell'utente
+	 * @param state: stato Online/Offline dell'utente
 	 * @throws IllegalArgumentException se il nome utente, la password o lo stato sono nulli
 	 */
-	public User(String nickName, String psw, String state) throws IllegalArgumentException{
+	public User(String nickName, String psw, UserState state) throws IllegalArgumentException{
 		if(nickName == null) throw new IllegalArgumentException("nickName null");
 		if(psw == null) throw new IllegalArgumentException("psw null");
 		if(state == null) throw new IllegalArgumentException("state null");
@@ -39,7 +50,8 @@ public class User{
 	}
 	
 	public User() {
-		
+		//gli utenti letti dal file di backup risultano Offline fino al login
+		this.state = UserState.Offline;
 	}
 	
 	// ---------------------------------- METODI GET ---------------------------------- //
@@ -54,7 +66,7 @@ public class User{
 	/**
 	 * @return lo stato dell'utente
 	 */
-	public String getState() {
+	public UserState getState() {
 		return this.state;
 	}
 	
@@ -79,14 +91,25 @@ public class User{
 		return this.port;
 	}
 	
+	/**
+	 * @return copia dei progetti di cui l'utente è membro, nell'ordine in cui vi è entrato
+	 */
+	@JsonIgnore
+	public List<Project> getProjects() {
+		synchronized(this.projects) {
+			return new ArrayList<Project>(this.projects);
+		}
+	}
+	
 	// ---------------------------------- METODI SET ---------------------------------- //
 	
 	/**
-	 * permette di settare lo stato dell'utente
+	 * permette di settare lo stato dell'utente, lo stato dei registrati va modificato tramite UserRegistry
+	 * in modo da mantenere aggiornato l'insieme degli utenti Online
 	 * 
 	 * @param newState: stato da associare all'utente
 	 */
-	public void setState(String newState) {
+	public void setState(UserState newState) {
 		this.state = newState;
 	}
 	
@@ -107,4 +130,24 @@ public class User{
 	public void setPort(int port) {
 		this.port = port;
 	}
+	
+	// ---------------------------------- METODI DI APPOGGIO ---------------------------------- //
+	
+	/**
+	 * permette di aggiornare l'indice dei progetti quando l'utente diventa membro di un progetto
+	 * 
+	 * @param project: progetto di cui l'utente è diventato membro
+	 */
+	public void addProject(Project project) {
+		this.projects.add(project);
+	}
+	
+	/**
+	 * permette di aggiornare l'indice dei progetti quando un progetto di cui l'utente è membro viene eliminato
+	 * 
+	 * @param project: progetto eliminato
+	 */
+	public void removeProject(Project project) {
+		this.projects.remove(project);
+	}
 }
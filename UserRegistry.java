@@ -0,0 +1,110 @@
+package progetto_2020_2021;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * UserRegistry mantiene gli utenti registrati al servizio WORTH indicizzati per nome, insieme all'insieme degli utenti
+ * Online. Le strutture dati sono concorrenti: registrazioni (thread RMI), login e ricerche (worker) non si contendono
+ * un unico lock
+ * 
+ * @author Antonio Guzzi
+ */
+public class UserRegistry {
+	
+	private final ConcurrentHashMap<String, User> users; //coppie nome - utente
+	private final Set<User> onlineUsers; //utenti attualmente Online
+	
+	// ---------------------------------- METODO COSTRUTTORE ---------------------------------- //
+	
+	public UserRegistry() {
+		this.users = new ConcurrentHashMap<String, User>();
+		this.onlineUsers = ConcurrentHashMap.newKeySet();
+	}
+	
+	// ---------------------------------- METODI GET ---------------------------------- //
+	
+	/**
+	 * @param nickName: nome dell'utente
+	 * @return l'utente con il nome specificato, null se non è registrato
+	 */
+	public User get(String nickName) {
+		if(nickName == null) return null;
+		return this.users.get(nickName);
+	}
+	
+	/**
+	 * @return vista non modificabile degli utenti registrati
+	 */
+	public Collection<User> getUsers() {
+		return Collections.unmodifiableCollection(this.users.values());
+	}
+	
+	/**
+	 * @return vista non modificabile degli utenti Online
+	 */
+	public Set<User> getOnlineUsers() {
+		return Collections.unmodifiableSet(this.onlineUsers);
+	}
+	
+	/**
+	 * @return numero di utenti registrati
+	 */
+	public int size() {
+		return this.users.size();
+	}
+	
+	// ---------------------------------- METODI DI APPOGGIO ---------------------------------- //
+	
+	/**
+	 * permette di registrare un nuovo utente, la verifica sull'unicità del nome e l'inserimento sono atomici
+	 * 
+	 * @param user: utente da registrare
+	 * @return true se l'utente è stato registrato, false se il nome è già in uso
+	 * @throws IllegalArgumentException se l'utente è nullo
+	 */
+	public boolean register(User user) throws IllegalArgumentException {
+		if(user == null) throw new IllegalArgumentException("user null");
+		if(this.users.putIfAbsent(user.getNickName(), user) != null) return false;
+		if(user.getState() == UserState.Online) this.onlineUsers.add(user);
+		return true;
+	}
+	
+	/**
+	 * permette di modificare lo stato di un utente mantenendo aggiornato l'insieme degli utenti Online
+	 * 
+	 * @param user: utente registrato
+	 * @param state: nuovo stato dell'utente
+	 * @throws IllegalArgumentException se l'utente o lo stato sono nulli
+	 */
+	public void setState(User user, UserState state) throws IllegalArgumentException {
+		if(user == null) throw new IllegalArgumentException("user null");
+		if(state == null) throw new IllegalArgumentException("state null");
+		user.setState(state);
+		if(state == UserState.Online) this.onlineUsers.add(user);
+		else this.onlineUsers.remove(user);
+	}
+	
+	/**
+	 * @return copia degli utenti registrati, da utilizzare per la serializzazione
+	 */
+	public ArrayList<User> snapshot() {
+		return new ArrayList<User>(this.users.values());
+	}
+	
+	/**
+	 * permette di tramutare gli utenti registrati nella stringa inviata ai client: coppie nome;stato separate da spazi
+	 * 
+	 * @return stringa contenente gli utenti registrati al servizio
+	 */
+	public String toPresenceString() {
+		StringBuilder str = new StringBuilder();
+		for(User tmp : this.users.values()) {
+			str.append(tmp.getNickName() + ";" + tmp.getState() + " ");
+		}
+		return str.toString().trim();
+	}
+}
@@ -0,0 +1,11 @@
+package progetto_2020_2021;
+
+/**
+ * UserState modella lo stato di un utente registrato al servizio WORTH, il nome di ogni stato è quello inviato ai client
+ * 
+ * @author Antonio Guzzi
+ */
+public enum UserState {
+	Online,
+	Offline
+}
@@ -0,0 +1,163 @@
+package progetto_2020_2021;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Workflow modella le liste (colonne) di un progetto e gli spostamenti consentiti tra di esse. Gli spostamenti vengono
+ * compilati in una matrice di transizione, in modo che la verifica di uno spostamento sia un singolo accesso ad array.
+ * Il workflow di default corrisponde agli stati di CardState, i progetti possono definirne uno personalizzato tramite
+ * una specifica testuale nella forma "COL1,COL2,COL3;COL1>COL2,COL2>COL3": la prima colonna è quella in cui vengono
+ * inserite le nuove carte, le colonne da cui non si può uscire sono quelle finali
+ *
+ * @author Antonio Guzzi
+ */
+public final class Workflow {
+
+	private static final String COLUMNS_SEPARATOR = ",";
+	private static final String SECTIONS_SEPARATOR = ";";
+	private static final String TRANSITION_SEPARATOR = ">";
+	//la matrice di transizione ha MAX_COLUMNS * MAX_COLUMNS elementi, la specifica arriva da una richiesta del client
+	private static final int MAX_COLUMNS = 64;
+
+	/**
+	 * workflow di default: TODO -> INPROGRESS, INPROGRESS -> TOBEREVISED, INPROGRESS -> DONE, TOBEREVISED -> INPROGRESS
+	 */
+	public static final Workflow DEFAULT = Workflow.parse(
+			CardState.TODO + "," + CardState.INPROGRESS + "," + CardState.TOBEREVISED + "," + CardState.DONE + ";" +
+			CardState.TODO + ">" + CardState.INPROGRESS + "," + CardState.INPROGRESS + ">" + CardState.TOBEREVISED + "," +
+			CardState.INPROGRESS + ">" + CardState.DONE + "," + CardState.TOBEREVISED + ">" + CardState.INPROGRESS);
+
+	private final String[] columns; //nomi delle colonne, l'indice di ogni colonna è la sua posizione
+	private final HashMap<String, Integer> indexes; //coppie nome - indice della colonna
+	private final boolean[][] transitions; //transitions[src][dst] è true se lo spostamento da src a dst è consentito
+	private final boolean[] finals; //colonne da cui non è consentito uscire
+	private final String spec;
+
+	// ---------------------------------- METODO COSTRUTTORE ---------------------------------- //
+
+	private Workflow(String[] columns, boolean[][] transitions, String spec) {
+		this.columns = columns;
+		this.transitions = transitions;
+		this.spec = spec;
+		this.indexes = new HashMap<String, Integer>();
+		this.finals = new boolean[columns.length];
+		for(int i = 0; i < columns.length; i++) {
+			this.indexes.put(columns[i], i);
+			this.finals[i] = true;
+			for(int j = 0; j < columns.length; j++) {
+				if(transitions[i][j]) this.finals[i] = false;
+			}
+		}
+	}
+
+	// ---------------------------------- METODI GET ---------------------------------- //
+
+	/**
+	 * @return numero di colonne del workflow
+	 */
+	public int size() {
+		return this.columns.length;
+	}
+
+	/**
+	 * @param column: indice della colonna
+	 * @return nome della colonna
+	 */
+	public String getName(int column) {
+		return this.columns[column];
+	}
+
+	/**
+	 * @param name: nome della colonna
+	 * @return indice della colonna, -1 se il workflow non ha una colonna con questo nome
+	 */
+	public int indexOf(String name) {
+		if(name == null) return -1;
+		Integer index = this.indexes.get(name);
+		return index == null ? -1 : index;
+	}
+
+	/**
+	 * @return indice della colonna in cui vengono inserite le nuove carte
+	 */
+	public int getInitial() {
+		return 0;
+	}
+
+	/**
+	 * @return specifica testuale del workflow, da cui può essere ricostruito con parse
+	 */
+	public String getSpec() {
+		return this.spec;
+	}
+
+	// ---------------------------------- METODI DI APPOGGIO ---------------------------------- //
+
+	/**
+	 * permette di verificare se uno spostamento è consentito
+	 *
+	 * @param src: indice della colonna sorgente
+	 * @param dst: indice della colonna destinazione
+	 * @return true se lo spostamento è consentito, false altrimenti
+	 */
+	public boolean canMove(int src, int dst) {
+		return this.transitions[src][dst];
+	}
+
+	/**
+	 * @param column: indice della colonna
+	 * @return true se dalla colonna non è consentito spostare carte, false altrimenti
+	 */
+	public boolean isFinal(int column) {
+		return this.finals[column];
+	}
+
+	/**
+	 * permette di compilare un workflow a partire dalla sua specifica testuale, i nomi delle colonne vengono
+	 * convertiti in maiuscolo come quelli inviati dal client
+	 *
+	 * @param spec: specifica nella forma "COL1,COL2,COL3;COL1>COL2,COL2>COL3"
+	 * @return il workflow compilato
+	 * @throws IllegalArgumentException se la specifica non è valida
+	 */
+	public static Workflow parse(String spec) throws IllegalArgumentException {
+		if(spec == null) throw new IllegalArgumentException("specifica del workflow null");
+		String[] sections = spec.trim().toUpperCase().split(SECTIONS_SEPARATOR, -1);
+		if(sections.length != 2) throw new IllegalArgumentException("il workflow deve essere nella forma COL1,COL2;COL1>COL2");
+
+		//colonne
+		ArrayList<String> columns = new ArrayList<String>();
+		HashMap<String, Integer> indexes = new HashMap<String, Integer>();
+		for(String column : sections[0].split(COLUMNS_SEPARATOR)) {
+			column = column.trim();
+			if(column.isEmpty() || column.contains(TRANSITION_SEPARATOR)) throw new IllegalArgumentException("nome di colonna non valido: '" + column + "'");
+			if(indexes.putIfAbsent(column, columns.size()) != null) throw new IllegalArgumentException("colonna " + column + " ripetuta");
+			columns.add(column);
+			if(columns.size() > MAX_COLUMNS) throw new IllegalArgumentException("il workflow può avere al massimo " + MAX_COLUMNS + " colonne");
+		}
+		if(columns.size() < 2) throw new IllegalArgumentException("il workflow deve avere almeno due colonne");
+
+		//transizioni
+		boolean[][] transitions = new boolean[columns.size()][columns.size()];
+		for(String transition : sections[1].split(COLUMNS_SEPARATOR)) {
+			if(transition.trim().isEmpty()) continue;
+			String[] ends = transition.split(TRANSITION_SEPARATOR, -1);
+			if(ends.length != 2) throw new IllegalArgumentException("transizione non valida: '" + transition + "'");
+			Integer src = indexes.get(ends[0].trim());
+			Integer dst = indexes.get(ends[1].trim());
+			if(src == null || dst == null) throw new IllegalArgumentException("la transizione " + transition + " usa una colonna inesistente");
+			if(src.intValue() == dst.intValue()) throw new IllegalArgumentException("la transizione " + transition + " non sposta la carta");
+			transitions[src][dst] = true;
+		}
+
+		StringBuilder normalized = new StringBuilder(String.join(COLUMNS_SEPARATOR, columns) + SECTIONS_SEPARATOR);
+		for(int i = 0; i < transitions.length; i++) {
+			for(int j = 0; j < transitions.length; j++) {
+				if(transitions[i][j]) normalized.append(columns.get(i) + TRANSITION_SEPARATOR + columns.get(j) + COLUMNS_SEPARATOR);
+			}
+		}
+		normalized.setLength(normalized.length() - (normalized.charAt(normalized.length() - 1) == ',' ? 1 : 0));
+		return new Workflow(columns.toArray(new String[0]), transitions, normalized.toString());
+	}
+}